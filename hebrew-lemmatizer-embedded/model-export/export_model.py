@@ -4,25 +4,181 @@ Export DictaBERT-tiny-joint model to ONNX format for the Hebrew Lemmatizer plugi
 
 This script:
 1. Downloads the dicta-il/dictabert-tiny-joint model from HuggingFace
-2. Converts it to ONNX format with FP16 optimization
+2. Converts it to ONNX and writes the requested precision variants
 3. Copies the tokenizer.json for use by the Java plugin
+
+Variants (--variants, comma-separated):
+  fp32         the exported graph, unquantized
+  int8         dynamic quantization, per-tensor INT8 weights (the historical model.onnx)
+  int8-static  static QDQ quantization with per-channel INT8 weights, calibrated on
+               --calibration-corpus (one sentence per line)
+
+The --default variant is saved as model.onnx, the others as model-<variant>.onnx;
+the plugin picks one with heb_lemmas.model.variant. With --prune-vocab, a
+"<variant>-pruned" copy of each variant is also written whose MLM head only scores
+whole-word tokens (the only ones the plugin can return as lemmas); pruned variants
+always use the in-graph top-k and map ids back to the full vocabulary.
+
+With --in-graph-topk K the graph additionally takes the first-subword positions
+as a "positions" input and returns only the top-K vocabulary ids per word
+("topk_indices", "topk_scores") instead of full-vocabulary logits. The Java
+plugin detects this variant automatically.
 """
 
+import argparse
 import os
 import shutil
 import json
 from pathlib import Path
 
+import numpy as np
+import onnx
 import torch
+from onnx import TensorProto, helper, numpy_helper
 from transformers import AutoTokenizer, AutoModelForMaskedLM
 from optimum.onnxruntime import ORTModelForMaskedLM
-from onnxruntime.quantization import quantize_dynamic, QuantType
+from onnxruntime.quantization import (CalibrationDataReader, QuantFormat, QuantType, quantize_dynamic,
+                                      quantize_static)
+from onnxruntime.quantization.shape_inference import quant_pre_process
 
 MODEL_NAME = "dicta-il/dictabert-tiny-joint"
 OUTPUT_DIR = Path(__file__).parent.parent / "plugin-lemmas-embedded" / "src" / "main" / "resources" / "model"
+DEFAULT_CORPUS = Path(__file__).parent.parent / "plugin-lemmas-embedded" / "src" / "jmh" / "resources" / "corpus" / "hebrew.txt"
+VARIANTS = ("fp32", "int8", "int8-static")
+
+
+class CorpusDataReader(CalibrationDataReader):
+    """Feeds tokenized corpus lines to static quantization calibration."""
+
+    def __init__(self, tokenizer, corpus_path, max_samples=256):
+        lines = [line.strip() for line in corpus_path.read_text(encoding="utf-8").splitlines() if line.strip()]
+        self.samples = iter(lines[:max_samples])
+        self.tokenizer = tokenizer
+
+    def get_next(self):
+        line = next(self.samples, None)
+        if line is None:
+            return None
+        inputs = self.tokenizer(line, return_tensors="np", truncation=True, max_length=128)
+        return {
+            "input_ids": inputs["input_ids"].astype(np.int64),
+            "attention_mask": inputs["attention_mask"].astype(np.int64),
+            "token_type_ids": inputs.get("token_type_ids", inputs["attention_mask"] * 0).astype(np.int64),
+        }
+
+
+def whole_word_ids(tokenizer):
+    """Vocabulary ids the plugin can return as a lemma: no [special] tokens, no ## continuations."""
+    vocab = tokenizer.get_vocab()
+    return np.array(sorted(idx for token, idx in vocab.items()
+                           if not token.startswith("##") and not (token.startswith("[") and token.endswith("]"))),
+                    dtype=np.int64)
+
+
+def prune_vocab(model_path, keep_ids):
+    """Slice the MLM decoder (MatMul + bias Add producing the logits) to the kept vocabulary rows.
+
+    The decoder weight is usually tied to the input embeddings, so sliced copies are added
+    as new initializers and the embeddings are left alone.
+    """
+    print(f"Pruning MLM head of {model_path} to {len(keep_ids)} tokens")
+    model = onnx.load(str(model_path))
+    graph = model.graph
+    logits_name = graph.output[0].name
+    producers = {out: node for node in graph.node for out in node.output}
+    initializers = {init.name: init for init in graph.initializer}
+
+    add = producers[logits_name]
+    bias_name = next((name for name in add.input if name in initializers), None) if add.op_type == "Add" else None
+    matmul = producers.get(next((name for name in add.input if name != bias_name), ""))
+    if bias_name is None or matmul is None or matmul.op_type != "MatMul":
+        raise ValueError("Unexpected MLM head, expected MatMul + Add producing " + logits_name)
+
+    weight_input = next(name for name in matmul.input if name in initializers or
+                        (name in producers and producers[name].op_type == "Transpose"))
+    if weight_input in initializers:
+        weight = numpy_helper.to_array(initializers[weight_input])[:, keep_ids]
+    else:
+        source = numpy_helper.to_array(initializers[producers[weight_input].input[0]])
+        weight = source[keep_ids, :].T
+    bias = numpy_helper.to_array(initializers[bias_name])[keep_ids]
+
+    graph.initializer.extend([
+        numpy_helper.from_array(np.ascontiguousarray(weight), "pruned_decoder_weight"),
+        numpy_helper.from_array(bias, "pruned_decoder_bias"),
+    ])
+    matmul.input[list(matmul.input).index(weight_input)] = "pruned_decoder_weight"
+    add.input[list(add.input).index(bias_name)] = "pruned_decoder_bias"
+    graph.output[0].type.tensor_type.shape.dim[-1].Clear()
+    graph.output[0].type.tensor_type.shape.dim[-1].dim_value = len(keep_ids)
+
+    onnx.checker.check_model(model)
+    onnx.save(model, str(model_path))
 
 
-def export_model():
+def append_topk(model_path, k, vocab_ids=None):
+    """Append a positions gather + TopK so the session returns [batch, words, k] ids.
+
+    For a pruned head, vocab_ids maps the pruned logit index back to the vocabulary id.
+    """
+    print(f"Appending in-graph gather + TopK (k={k}) to {model_path}")
+    model = onnx.load(str(model_path))
+    graph = model.graph
+    logits_name = graph.output[0].name
+
+    graph.input.append(
+        helper.make_tensor_value_info("positions", TensorProto.INT64, ["batch_size", "num_words"]))
+    graph.initializer.extend([
+        numpy_helper.from_array(np.array([2], dtype=np.int64), "topk_unsqueeze_axes"),
+        numpy_helper.from_array(np.array([k], dtype=np.int64), "topk_k"),
+    ])
+    graph.node.extend([
+        # positions [batch, words] -> [batch, words, 1] for a per-batch GatherND
+        helper.make_node("Unsqueeze", ["positions", "topk_unsqueeze_axes"], ["topk_positions"]),
+        helper.make_node("GatherND", [logits_name, "topk_positions"], ["topk_word_logits"], batch_dims=1),
+    ])
+    if vocab_ids is None:
+        graph.node.append(helper.make_node("TopK", ["topk_word_logits", "topk_k"], ["topk_scores", "topk_indices"],
+                                           axis=-1, largest=1, sorted=1))
+    else:
+        graph.initializer.append(numpy_helper.from_array(vocab_ids, "topk_vocab_ids"))
+        graph.node.extend([
+            helper.make_node("TopK", ["topk_word_logits", "topk_k"], ["topk_scores", "topk_pruned_indices"],
+                             axis=-1, largest=1, sorted=1),
+            helper.make_node("Gather", ["topk_vocab_ids", "topk_pruned_indices"], ["topk_indices"], axis=0),
+        ])
+
+    del graph.output[:]
+    graph.output.extend([
+        helper.make_tensor_value_info("topk_indices", TensorProto.INT64, ["batch_size", "num_words", k]),
+        helper.make_tensor_value_info("topk_scores", TensorProto.FLOAT, ["batch_size", "num_words", k]),
+    ])
+
+    onnx.checker.check_model(model)
+    onnx.save(model, str(model_path))
+
+
+def quantize_variant(variant, fp32_file, output_file, tokenizer, calibration_corpus):
+    """Write one precision variant of the FP32 graph to output_file."""
+    if variant == "fp32":
+        shutil.copy(fp32_file, output_file)
+    elif variant == "int8":
+        print(f"Quantizing to INT8 (dynamic): {output_file}")
+        quantize_dynamic(str(fp32_file), str(output_file), weight_type=QuantType.QInt8)
+    elif variant == "int8-static":
+        print(f"Quantizing to INT8 (static, per-channel) with {calibration_corpus}: {output_file}")
+        preprocessed = output_file.with_suffix(".pre.onnx")
+        quant_pre_process(str(fp32_file), str(preprocessed), skip_symbolic_shape=True)
+        quantize_static(str(preprocessed), str(output_file), CorpusDataReader(tokenizer, calibration_corpus),
+                        quant_format=QuantFormat.QDQ, per_channel=True,
+                        weight_type=QuantType.QInt8, activation_type=QuantType.QInt8)
+        preprocessed.unlink()
+    else:
+        raise ValueError(f"Unknown variant {variant}, expected one of {', '.join(VARIANTS)}")
+
+
+def export_model(in_graph_topk=0, variants=("int8",), default_variant="int8", prune=False,
+                 calibration_corpus=DEFAULT_CORPUS):
     """Export the model to ONNX format."""
     print(f"Exporting {MODEL_NAME} to ONNX...")
     
@@ -85,15 +241,28 @@ def export_model():
         if not onnx_file.exists():
             raise FileNotFoundError("ONNX export did not produce a model file")
 
-        # Quantize to INT8 for fast CPU inference
-        quantized_file = temp_dir / "model-int8.onnx"
-        print(f"Quantizing ONNX model to INT8: {quantized_file}")
-        quantize_dynamic(str(onnx_file), str(quantized_file), weight_type=QuantType.QInt8)
+        builds = [(variant, False) for variant in variants]
+        if prune:
+            builds += [(variant, True) for variant in variants]
+            pruned_fp32 = temp_dir / "model-pruned-fp32.onnx"
+            shutil.copy(onnx_file, pruned_fp32)
+            keep_ids = whole_word_ids(tokenizer)
+            prune_vocab(pruned_fp32, keep_ids)
+
+        for variant, pruned in builds:
+            name = variant + ("-pruned" if pruned else "")
+            variant_file = temp_dir / f"model-{name}.onnx"
+            quantize_variant(variant, pruned_fp32 if pruned else onnx_file, variant_file, tokenizer,
+                             calibration_corpus)
+            if pruned:
+                append_topk(variant_file, in_graph_topk or 3, keep_ids)
+            elif in_graph_topk > 0:
+                append_topk(variant_file, in_graph_topk)
+
+            target = OUTPUT_DIR / ("model.onnx" if name == default_variant else f"model-{name}.onnx")
+            shutil.copy(variant_file, target)
+            print(f"Saved {name} ONNX model to {target}")
 
-        # Copy quantized model into plugin resources
-        shutil.copy(quantized_file, OUTPUT_DIR / "model.onnx")
-        print(f"Saved quantized ONNX model to {OUTPUT_DIR / 'model.onnx'}")
-        
     finally:
         # Cleanup temp directory
         if temp_dir.exists():
@@ -102,9 +271,9 @@ def export_model():
     # Print model info
     model_path = OUTPUT_DIR / "model.onnx"
     if model_path.exists():
-        size_mb = model_path.stat().st_size / (1024 * 1024)
         print(f"\nModel exported successfully!")
-        print(f"  Model size: {size_mb:.1f} MB")
+        for f in sorted(OUTPUT_DIR.glob("model*.onnx")):
+            print(f"  {f.name}: {f.stat().st_size / (1024 * 1024):.1f} MB")
         print(f"  Output directory: {OUTPUT_DIR}")
     else:
         print("ERROR: Model export failed!")
@@ -147,20 +316,29 @@ def test_model():
     # Tokenize
     inputs = tokenizer(test_text, return_tensors="np")
     
+    feed = {
+        "input_ids": inputs["input_ids"],
+        "attention_mask": inputs["attention_mask"],
+        "token_type_ids": inputs.get("token_type_ids", inputs["attention_mask"] * 0)
+    }
+
+    if "positions" in [inp.name for inp in session.get_inputs()]:
+        # In-graph top-k variant: ask for the first position after [CLS]
+        feed["positions"] = np.array([[1]], dtype=np.int64)
+        topk_ids = session.run(["topk_indices"], feed)[0]
+        print(f"Output shape: {topk_ids.shape}")
+        print("Top predictions:")
+        for idx in topk_ids[0][0]:
+            print(f"  {idx}: {tokenizer.decode([int(idx)])}")
+        print("\nTest completed successfully!")
+        return
+
     # Run inference
-    outputs = session.run(
-        None,
-        {
-            "input_ids": inputs["input_ids"],
-            "attention_mask": inputs["attention_mask"],
-            "token_type_ids": inputs.get("token_type_ids", inputs["attention_mask"] * 0)
-        }
-    )
+    outputs = session.run(None, feed)
     
     print(f"Output shape: {outputs[0].shape}")
     
     # Get top prediction for the word
-    import numpy as np
     logits = outputs[0][0]  # First batch
     
     # Get predictions for position 1 (first token after [CLS])
@@ -177,5 +355,28 @@ def test_model():
 
 
 if __name__ == "__main__":
-    if export_model():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--in-graph-topk", type=int, default=0, metavar="K",
+                        help="append a gather + TopK so the model returns only K ids per word (0 = full logits)")
+    parser.add_argument("--variants", default="int8",
+                        help="comma-separated precision variants to write: " + ", ".join(VARIANTS))
+    parser.add_argument("--default", dest="default_variant", default=None,
+                        help="variant saved as model.onnx (default: the first of --variants)")
+    parser.add_argument("--prune-vocab", action="store_true",
+                        help="also write <variant>-pruned models whose MLM head only scores whole-word tokens")
+    parser.add_argument("--calibration-corpus", type=Path, default=DEFAULT_CORPUS,
+                        help="sentences (one per line) used to calibrate int8-static")
+    args = parser.parse_args()
+
+    variants = [v.strip() for v in args.variants.split(",") if v.strip()]
+    unknown = [v for v in variants if v not in VARIANTS]
+    if unknown:
+        parser.error(f"unknown variants {unknown}, expected any of {', '.join(VARIANTS)}")
+    default_variant = args.default_variant or variants[0]
+    built = variants + ([v + "-pruned" for v in variants] if args.prune_vocab else [])
+    if default_variant not in built:
+        parser.error(f"--default {default_variant} is not among the exported variants {built}")
+
+    if export_model(in_graph_topk=args.in_graph_topk, variants=variants, default_variant=default_variant,
+                    prune=args.prune_vocab, calibration_corpus=args.calibration_corpus):
         test_model()
@@ -0,0 +1,66 @@
+package ai.korra;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full analysis of one field: whitespace tokenizer, {@code heb_lemmas} and {@code heb_stopwords}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class AnalysisChainBenchmark {
+
+    @Param({"16", "256", "2048"})
+    public int fieldWords;
+
+    @Param({"0", "128"})
+    public int windowSize;
+
+    private String text;
+    private WhitespaceTokenizer tokenizer;
+    private TokenStream stream;
+    private CharTermAttribute termAttr;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkCorpus.lemmatizer();
+        text = BenchmarkCorpus.text(fieldWords);
+        tokenizer = new WhitespaceTokenizer();
+        int overlap = windowSize > 0 ? HebTokenFilter.DEFAULT_WINDOW_OVERLAP : 0;
+        stream = new HebStopwordsTokenFilter(new HebTokenFilter(tokenizer, windowSize, overlap));
+        termAttr = stream.addAttribute(CharTermAttribute.class);
+    }
+
+    @Benchmark
+    public int analyze() throws IOException {
+        tokenizer.setReader(new StringReader(text));
+        stream.reset();
+        int length = 0;
+        while (stream.incrementToken()) {
+            length += termAttr.length();
+        }
+        stream.end();
+        stream.close();
+        return length;
+    }
+}
@@ -0,0 +1,96 @@
+package ai.korra;
+
+import org.elasticsearch.common.settings.Settings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shared fixtures: the bundled Hebrew corpus and a lemmatizer over the locally built model.
+ */
+final class BenchmarkCorpus {
+
+    static final List<String> DOCUMENTS = load("/corpus/hebrew.txt");
+    static final List<String> WORDS = DOCUMENTS.stream()
+            .flatMap(line -> Arrays.stream(line.split("\\s+")))
+            .toList();
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * The shared lemmatizer with result caches off and batching off, so every call runs
+     * the model on the calling thread.
+     */
+    static OnnxLemmatizer lemmatizer() throws Exception {
+        OnnxLemmatizer.configure(Settings.builder()
+                .put(HebLemmasSettings.CACHE_MAX_SIZE.getKey(), "0")
+                .put(HebLemmasSettings.BATCH_MAX_SIZE.getKey(), 1)
+                .build());
+        return OnnxLemmatizer.getInstance();
+    }
+
+    static WordPieceTokenizer tokenizer() throws IOException {
+        try (InputStream in = BenchmarkCorpus.class.getResourceAsStream("/model/tokenizer.json")) {
+            if (in == null) {
+                throw new IllegalStateException("tokenizer.json not found, export the model first");
+            }
+            return new WordPieceTokenizer(in);
+        }
+    }
+
+    /**
+     * Model input for {@code words} as one sequence: {@code [CLS] pieces... [SEP]}, with
+     * the first-piece position of each word.
+     */
+    static InferenceBatcher.Request request(WordPieceTokenizer tokenizer, List<String> words) {
+        List<Integer> ids = new ArrayList<>();
+        int[] positions = new int[words.size()];
+        ids.add(tokenizer.getTokenId("[CLS]"));
+        for (int i = 0; i < words.size(); i++) {
+            int[] pieces = tokenizer.encode(words.get(i));
+            positions[i] = pieces.length > 0 ? ids.size() : -1;
+            for (int piece : pieces) {
+                ids.add(piece);
+            }
+        }
+        ids.add(tokenizer.getTokenId("[SEP]"));
+        return new InferenceBatcher.Request(ids.stream().mapToLong(Integer::longValue).toArray(), positions);
+    }
+
+    /**
+     * Corpus text repeated until it has at least {@code words} words.
+     */
+    static String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS.get(i % WORDS.size())).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static List<String> load(String resource) {
+        try (InputStream in = BenchmarkCorpus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Corpus not found: " + resource);
+            }
+            List<String> lines = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.isBlank()) {
+                    lines.add(line.strip());
+                }
+            }
+            return List.copyOf(lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
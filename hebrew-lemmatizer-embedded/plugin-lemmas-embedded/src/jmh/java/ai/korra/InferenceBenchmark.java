@@ -0,0 +1,67 @@
+package ai.korra;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One session run (input fill, model, top-k for every word) at a given sequence length
+ * and batch size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class InferenceBenchmark {
+
+    @Param({"16", "64", "128", "256"})
+    public int sequenceLength;
+
+    @Param({"1", "4", "16"})
+    public int batchSize;
+
+    private OnnxLemmatizer lemmatizer;
+    private List<InferenceBatcher.Request> batch;
+    private int maxLen;
+
+    @Setup
+    public void setup() throws Exception {
+        lemmatizer = BenchmarkCorpus.lemmatizer();
+        WordPieceTokenizer tokenizer = BenchmarkCorpus.tokenizer();
+        List<String> words = BenchmarkCorpus.WORDS;
+
+        batch = new ArrayList<>(batchSize);
+        int next = 0;
+        for (int b = 0; b < batchSize; b++) {
+            // Add words until the encoded sequence reaches the target length
+            List<String> sequence = new ArrayList<>();
+            InferenceBatcher.Request request = BenchmarkCorpus.request(tokenizer, sequence);
+            while (request.length() < sequenceLength) {
+                sequence.add(words.get(next++ % words.size()));
+                request = BenchmarkCorpus.request(tokenizer, sequence);
+            }
+            batch.add(request);
+            maxLen = Math.max(maxLen, request.length());
+        }
+    }
+
+    @Benchmark
+    public List<InferenceBatcher.Request> runInference() throws Exception {
+        lemmatizer.runInference(batch, maxLen);
+        return batch;
+    }
+}
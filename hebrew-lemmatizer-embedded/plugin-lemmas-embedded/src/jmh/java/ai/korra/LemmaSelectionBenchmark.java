@@ -0,0 +1,72 @@
+package ai.korra;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processing of model output: top-k over a logits row and lemma selection among
+ * the top-k candidates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LemmaSelectionBenchmark {
+
+    private static final int VOCAB_SIZE = 128_000;
+    private static final int TOP_K = 3;
+
+    private OnnxLemmatizer lemmatizer;
+    private final TopKSelector selector = new TopKSelector(TOP_K);
+    private final int[] topK = new int[TOP_K];
+    private float[] logits;
+    private String[] words;
+    private int[][] candidates;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        lemmatizer = BenchmarkCorpus.lemmatizer();
+        Random random = new Random(42);
+        logits = new float[VOCAB_SIZE];
+        for (int i = 0; i < logits.length; i++) {
+            logits[i] = (float) random.nextGaussian();
+        }
+
+        // Real predictions for the corpus words, so selection sees realistic candidates
+        WordPieceTokenizer tokenizer = BenchmarkCorpus.tokenizer();
+        words = BenchmarkCorpus.WORDS.toArray(String[]::new);
+        candidates = new int[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            InferenceBatcher.Request request = BenchmarkCorpus.request(tokenizer, List.of(words[i]));
+            lemmatizer.runInference(List.of(request), request.length());
+            candidates[i] = request.topK[0] != null ? request.topK[0] : new int[0];
+        }
+    }
+
+    @Benchmark
+    public int[] topKOverLogitsRow() {
+        selector.select(logits, 0, VOCAB_SIZE, topK);
+        return topK;
+    }
+
+    @Benchmark
+    public String selectBestLemma() {
+        int i = next++ % words.length;
+        return lemmatizer.selectBestLemma(words[i], candidates[i]);
+    }
+}
@@ -0,0 +1,289 @@
+package ai.korra;
+
+import org.elasticsearch.common.settings.Settings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Offline comparison of the bundled model variants (see {@code heb_lemmas.model.variant}):
+ * {@code ./gradlew compareVariants -Pvariants.args="--variants default,fp32,int8-static"}.
+ *
+ * Each variant runs in its own JVM, so peak memory is not shared between variants. The
+ * sample is lemmatized in sequences of up to {@value #WORDS_PER_SEQUENCE} Hebrew words,
+ * one call per sequence with caches and batching off, and the harness reports words/sec,
+ * p50/p99 call latency, peak RSS and the RSS added by loading the model, and the share of
+ * words whose lemma matches the reference variant ({@code fp32} by default).
+ *
+ * The sample is the benchmark corpus, or with {@code --labeled <file>} a file with one
+ * {@code word<TAB>lemma} per line and blank lines between sentences, in which case the
+ * accuracy against the labels is reported too.
+ */
+public final class VariantComparison {
+
+    private static final int WORDS_PER_SEQUENCE = 64;
+    private static final String RESULT_PREFIX = "RESULT ";
+
+    private VariantComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options.containsKey("run")) {
+            runVariant(options.get("run"), Path.of(options.get("out")), options.get("labeled"),
+                    Integer.parseInt(options.getOrDefault("iterations", "3")));
+            return;
+        }
+
+        List<String> variants = Arrays.asList(options.getOrDefault("variants", "default,fp32").split(","));
+        String reference = options.getOrDefault("reference", "fp32");
+        Path work = Files.createTempDirectory("heb-variants");
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        for (String variant : variants) {
+            Path out = work.resolve(variant + ".lemmas");
+            Map<String, String> result = fork(variant, out, options);
+            if (result != null) {
+                results.put(variant, result);
+            }
+        }
+
+        List<List<String>> labels = options.containsKey("labeled")
+                ? sample(options.get("labeled")).labels : null;
+        Path referenceOut = work.resolve(reference + ".lemmas");
+        List<String> referenceLemmas = Files.exists(referenceOut) ? Files.readAllLines(referenceOut) : null;
+
+        System.out.printf(Locale.ROOT, "%n%-20s %12s %10s %10s %14s %14s %10s %10s%n", "variant", "words/s",
+                "p50 ms", "p99 ms", "peak RSS MB", "model RSS MB", "agreement", "accuracy");
+        for (Map.Entry<String, Map<String, String>> entry : results.entrySet()) {
+            Map<String, String> result = entry.getValue();
+            List<String> lemmas = Files.readAllLines(work.resolve(entry.getKey() + ".lemmas"));
+            System.out.printf(Locale.ROOT, "%-20s %12.0f %10.2f %10.2f %14s %14s %10s %10s%n", entry.getKey(),
+                    Double.parseDouble(result.get("words_per_sec")),
+                    Double.parseDouble(result.get("p50_ms")),
+                    Double.parseDouble(result.get("p99_ms")),
+                    result.get("peak_rss_mb"),
+                    result.get("model_rss_mb"),
+                    referenceLemmas != null ? percent(agreement(lemmas, referenceLemmas)) : "-",
+                    labels != null ? percent(accuracy(lemmas, labels)) : "-");
+        }
+        if (referenceLemmas == null) {
+            System.out.println("Reference variant [" + reference + "] was not run, agreement not reported");
+        }
+    }
+
+    /**
+     * Child JVM: lemmatizes the sample with one variant, writes one line of lemmas per
+     * sequence to {@code out} and prints its measurements on one {@value #RESULT_PREFIX} line.
+     */
+    private static void runVariant(String variant, Path out, String labeled, int iterations) throws Exception {
+        Sample sample = sample(labeled);
+        long baselineRss = procStatusKb("VmRSS");
+
+        OnnxLemmatizer.configure(Settings.builder()
+                .put(HebLemmasSettings.MODEL_VARIANT.getKey(), variant)
+                .put(HebLemmasSettings.CACHE_MAX_SIZE.getKey(), "0")
+                .put(HebLemmasSettings.BATCH_MAX_SIZE.getKey(), 1)
+                .build());
+        OnnxLemmatizer.preload();
+        OnnxLemmatizer lemmatizer = OnnxLemmatizer.getInstance();
+
+        List<String> lines = new ArrayList<>();
+        for (List<String> sequence : sample.sequences) {
+            lines.add(String.join(" ", lemmatizer.lemmatize(sequence)));
+        }
+        Files.write(out, lines, StandardCharsets.UTF_8);
+
+        long[] latencies = new long[sample.sequences.size() * iterations];
+        long words = 0;
+        int call = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (List<String> sequence : sample.sequences) {
+                long callStart = System.nanoTime();
+                lemmatizer.lemmatize(sequence);
+                latencies[call++] = System.nanoTime() - callStart;
+                words += sequence.size();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Arrays.sort(latencies);
+
+        long peakRss = procStatusKb("VmHWM");
+        System.out.println(RESULT_PREFIX + String.join(" ",
+                "words_per_sec=" + String.format(Locale.ROOT, "%.1f", words / seconds),
+                "p50_ms=" + String.format(Locale.ROOT, "%.3f", percentile(latencies, 0.50) / 1e6),
+                "p99_ms=" + String.format(Locale.ROOT, "%.3f", percentile(latencies, 0.99) / 1e6),
+                "peak_rss_mb=" + (peakRss < 0 ? "-" : String.valueOf(peakRss / 1024)),
+                "model_rss_mb=" + (peakRss < 0 || baselineRss < 0 ? "-" : String.valueOf((peakRss - baselineRss) / 1024))));
+        lemmatizer.close();
+    }
+
+    private static Map<String, String> fork(String variant, Path out, Map<String, String> options)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "--add-modules=jdk.incubator.vector",
+                "-Des.path.data=" + System.getProperty("es.path.data", System.getProperty("java.io.tmpdir")),
+                "-cp", System.getProperty("java.class.path"),
+                VariantComparison.class.getName(),
+                "--run", variant, "--out", out.toString(),
+                "--iterations", options.getOrDefault("iterations", "3")));
+        if (options.containsKey("labeled")) {
+            command.addAll(List.of("--labeled", options.get("labeled")));
+        }
+
+        System.out.println("Running variant [" + variant + "]");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Map<String, String> result = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    result = new LinkedHashMap<>();
+                    for (String field : line.substring(RESULT_PREFIX.length()).split(" ")) {
+                        int eq = field.indexOf('=');
+                        result.put(field.substring(0, eq), field.substring(eq + 1));
+                    }
+                } else {
+                    System.out.println("  " + line);
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            System.out.println("Variant [" + variant + "] failed with exit code " + process.exitValue());
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Hebrew words of the sample in sequences of up to {@value #WORDS_PER_SEQUENCE} words,
+     * with the gold lemma of each word when the sample is labeled.
+     */
+    private record Sample(List<List<String>> sequences, List<List<String>> labels) {
+    }
+
+    private static Sample sample(String labeled) throws IOException {
+        List<List<String>> sentences = new ArrayList<>();
+        List<List<String>> sentenceLabels = new ArrayList<>();
+        if (labeled == null) {
+            for (String document : BenchmarkCorpus.DOCUMENTS) {
+                List<String> words = new ArrayList<>();
+                for (String word : document.split("\\s+")) {
+                    if (TokenClassifier.HEBREW.shouldLemmatize(word.toCharArray(), word.length())) {
+                        words.add(word);
+                    }
+                }
+                sentences.add(words);
+            }
+        } else {
+            List<String> words = new ArrayList<>();
+            List<String> lemmas = new ArrayList<>();
+            for (String line : Files.readAllLines(Path.of(labeled), StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    if (!words.isEmpty()) {
+                        sentences.add(words);
+                        sentenceLabels.add(lemmas);
+                        words = new ArrayList<>();
+                        lemmas = new ArrayList<>();
+                    }
+                    continue;
+                }
+                String[] columns = line.strip().split("\t");
+                words.add(columns[0]);
+                lemmas.add(columns.length > 1 ? columns[1] : columns[0]);
+            }
+            if (!words.isEmpty()) {
+                sentences.add(words);
+                sentenceLabels.add(lemmas);
+            }
+        }
+
+        List<List<String>> sequences = new ArrayList<>();
+        List<List<String>> labels = new ArrayList<>();
+        for (int s = 0; s < sentences.size(); s++) {
+            List<String> words = sentences.get(s);
+            for (int from = 0; from < words.size(); from += WORDS_PER_SEQUENCE) {
+                int to = Math.min(words.size(), from + WORDS_PER_SEQUENCE);
+                sequences.add(words.subList(from, to));
+                if (labeled != null) {
+                    labels.add(sentenceLabels.get(s).subList(from, to));
+                }
+            }
+        }
+        return new Sample(sequences, labels);
+    }
+
+    private static double[] agreement(List<String> lemmas, List<String> reference) {
+        long same = 0;
+        long total = 0;
+        for (int i = 0; i < Math.min(lemmas.size(), reference.size()); i++) {
+            String[] a = lemmas.get(i).split(" ");
+            String[] b = reference.get(i).split(" ");
+            for (int w = 0; w < Math.min(a.length, b.length); w++) {
+                if (a[w].equals(b[w])) {
+                    same++;
+                }
+            }
+            total += Math.max(a.length, b.length);
+        }
+        return new double[]{same, total};
+    }
+
+    private static double[] accuracy(List<String> lemmas, List<List<String>> labels) {
+        List<String> gold = new ArrayList<>();
+        for (List<String> sequence : labels) {
+            gold.add(String.join(" ", sequence));
+        }
+        return agreement(lemmas, gold);
+    }
+
+    private static String percent(double[] counts) {
+        return counts[1] == 0 ? "-" : String.format(Locale.ROOT, "%.2f%%", 100 * counts[0] / counts[1]);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    /**
+     * A {@code kB} field of {@code /proc/self/status}, or -1 where it is not available.
+     */
+    private static long procStatusKb(String field) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith(field + ":")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Usage: VariantComparison [--variants default,fp32,int8-static]"
+                        + " [--reference fp32] [--labeled sample.tsv] [--iterations 3]");
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,50 @@
+package ai.korra;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Word-piece encoding of every corpus word, per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WordPieceTokenizerBenchmark {
+
+    private WordPieceTokenizer tokenizer;
+    private char[][] words;
+    private int[] pieces;
+
+    @Setup
+    public void setup() throws Exception {
+        tokenizer = BenchmarkCorpus.tokenizer();
+        words = BenchmarkCorpus.WORDS.stream().map(String::toCharArray).toArray(char[][]::new);
+        int maxLength = 0;
+        for (char[] word : words) {
+            maxLength = Math.max(maxLength, word.length);
+        }
+        pieces = new int[WordPieceTokenizer.maxPieces(maxLength)];
+    }
+
+    @Benchmark
+    public int encodeCorpus() {
+        int total = 0;
+        for (char[] word : words) {
+            total += tokenizer.encode(word, 0, word.length, pieces, 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,86 @@
+package ai.korra;
+
+import ai.korra.HebLemmasSettings.OverloadPolicy;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the analysis calls that wait for or run inference at the same time
+ * ({@code heb_lemmas.admission.*}).
+ *
+ * A call that finds no free slot waits up to the queue timeout; if it is still not
+ * admitted, the caller applies the {@link OverloadPolicy} instead of running the model.
+ * Under a burst this keeps the inference queue, and so the latency of admitted calls,
+ * bounded rather than letting every analysis thread pile up behind the sessions.
+ */
+final class AdmissionControl {
+
+    private final Semaphore permits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LemmatizerStats stats;
+
+    private volatile long queueTimeoutNanos;
+    private volatile OverloadPolicy overloadPolicy;
+
+    AdmissionControl(Settings settings, LemmatizerStats stats) {
+        int maxInFlight = HebLemmasSettings.ADMISSION_MAX_IN_FLIGHT.get(settings);
+        this.permits = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+        this.stats = stats;
+        setQueueTimeout(HebLemmasSettings.ADMISSION_QUEUE_TIMEOUT.get(settings));
+        setOverloadPolicy(HebLemmasSettings.ADMISSION_OVERLOAD_POLICY.get(settings));
+    }
+
+    void setQueueTimeout(TimeValue timeout) {
+        queueTimeoutNanos = timeout.nanos();
+    }
+
+    void setOverloadPolicy(OverloadPolicy policy) {
+        overloadPolicy = policy;
+    }
+
+    OverloadPolicy overloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * Calls currently admitted.
+     */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Takes a slot, waiting up to the queue timeout. Every {@code true} must be followed by
+     * {@link #release()}.
+     */
+    boolean tryAcquire() {
+        if (permits != null && !permits.tryAcquire()) {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                return false;
+            }
+            stats.onQueued();
+        }
+        inFlight.incrementAndGet();
+        stats.onAdmitted();
+        return true;
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+    }
+}
@@ -16,6 +16,10 @@ public class HebDebugger {
     public HebDebugger() {
     }
 
+    public static boolean isEnabled() {
+        return DEBUG_ENABLED;
+    }
+
     public void debugPrint(String message) {
         if (DEBUG_ENABLED) {
             System.out.println("[HebLemmatizer] " + message);
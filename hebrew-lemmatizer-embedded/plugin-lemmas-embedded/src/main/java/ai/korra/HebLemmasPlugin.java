@@ -1,22 +1,118 @@
 package ai.korra;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.features.NodeFeature;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.indices.analysis.AnalysisModule;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Classic plugin entry point for Hebrew lemmatizer.
  */
-public class HebLemmasPlugin extends Plugin implements AnalysisPlugin {
+public class HebLemmasPlugin extends Plugin implements AnalysisPlugin, ActionPlugin, IngestPlugin {
+
+    private static final Logger logger = LogManager.getLogger(HebLemmasPlugin.class);
+
+    private final Settings settings;
+    private volatile IngestBatcher ingestBatcher;
+
+    public HebLemmasPlugin(Settings settings) {
+        this.settings = settings;
+        OnnxLemmatizer.configure(settings);
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return HebLemmasSettings.all();
+    }
+
+    @Override
+    public Collection<?> createComponents(PluginServices services) {
+        services.clusterService().getClusterSettings().addSettingsUpdateConsumer(
+                HebLemmasSettings.SLOWLOG_THRESHOLD, OnnxLemmatizer.stats()::setSlowThreshold);
+        services.clusterService().getClusterSettings().addSettingsUpdateConsumer(
+                HebLemmasSettings.ADMISSION_QUEUE_TIMEOUT, OnnxLemmatizer.admission()::setQueueTimeout);
+        services.clusterService().getClusterSettings().addSettingsUpdateConsumer(
+                HebLemmasSettings.ADMISSION_OVERLOAD_POLICY, OnnxLemmatizer.admission()::setOverloadPolicy);
+
+        switch (HebLemmasSettings.STARTUP_LOAD.get(settings)) {
+            case BLOCKING -> {
+                try {
+                    OnnxLemmatizer.preload();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Failed to load the Hebrew lemmatizer model", e);
+                }
+            }
+            case BACKGROUND -> services.threadPool().generic().execute(() -> {
+                try {
+                    OnnxLemmatizer.preload();
+                } catch (Exception e) {
+                    logger.warn("Failed to preload the Hebrew lemmatizer model, it will be loaded on first use", e);
+                }
+            });
+            case LAZY -> {
+            }
+        }
+        return List.of();
+    }
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
         return Map.of(
                 "heb_lemmas", HebTokenFilterFactory::new,
-                "heb_stopwords", HebStopwordsTokenFilterFactory::new
+                "heb_stopwords", HebStopwordsTokenFilterFactory::new,
+                "heb_prefix_light", HebPrefixLightTokenFilterFactory::new
         );
     }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        ingestBatcher = new IngestBatcher(settings, parameters.genericExecutor);
+        return Map.of(HebLemmatizeProcessor.TYPE,
+                new HebLemmatizeProcessor.Factory(ingestBatcher, parameters.threadContext));
+    }
+
+    @Override
+    public Collection<ActionHandler> getActions() {
+        return List.of(new ActionHandler(HebLemmasStatsAction.INSTANCE, TransportHebLemmasStatsAction.class));
+    }
+
+    @Override
+    public Collection<RestHandler> getRestHandlers(Settings settings, NamedWriteableRegistry namedWriteableRegistry,
+                                                   RestController restController, ClusterSettings clusterSettings,
+                                                   IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                                   IndexNameExpressionResolver indexNameExpressionResolver,
+                                                   Supplier<DiscoveryNodes> nodesInCluster,
+                                                   Predicate<NodeFeature> clusterSupportsFeature) {
+        return List.of(new RestHebLemmasStatsAction());
+    }
+
+    @Override
+    public void close() {
+        IngestBatcher batcher = ingestBatcher;
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
 }
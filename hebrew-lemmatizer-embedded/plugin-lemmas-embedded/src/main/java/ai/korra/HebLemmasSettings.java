@@ -0,0 +1,287 @@
+package ai.korra;
+
+import ai.onnxruntime.OrtSession.SessionOptions.ExecutionMode;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.core.TimeValue;
+
+import java.util.List;
+
+/**
+ * Node-level settings for the embedded lemmatizer (elasticsearch.yml).
+ */
+public final class HebLemmasSettings {
+
+    /**
+     * Maximum number of sequences run through the model in one session call.
+     * A value of 1 disables batching and runs inference on the analysis thread.
+     */
+    public static final Setting<Integer> BATCH_MAX_SIZE =
+            Setting.intSetting("heb_lemmas.batch.max_size", 16, 1, 256, Property.NodeScope);
+
+    /**
+     * How long a batch waits for more sequences after the first one arrives.
+     */
+    public static final Setting<TimeValue> BATCH_MAX_WAIT =
+            Setting.timeSetting("heb_lemmas.batch.max_wait", TimeValue.timeValueNanos(200_000),
+                    TimeValue.ZERO, Property.NodeScope);
+
+    /**
+     * Upper bound on padded positions (batch size x longest sequence) per session call,
+     * which bounds the size of the logits tensor.
+     */
+    public static final Setting<Integer> BATCH_MAX_TOKENS =
+            Setting.intSetting("heb_lemmas.batch.max_tokens", 512, 1, 4096, Property.NodeScope);
+
+    /**
+     * Number of threads that assemble and run batches.
+     */
+    public static final Setting<Integer> BATCH_WORKERS =
+            Setting.intSetting("heb_lemmas.batch.workers", 2, 1, 64, Property.NodeScope);
+
+    /**
+     * How long an analysis call waits for its batch to run before it fails.
+     */
+    public static final Setting<TimeValue> BATCH_TIMEOUT =
+            Setting.timeSetting("heb_lemmas.batch.timeout", TimeValue.timeValueSeconds(30),
+                    TimeValue.timeValueMillis(1), Property.NodeScope);
+
+    /**
+     * Approximate heap budget for cached inference results, keyed on the encoded
+     * word-piece sequence. Accepts a size or a heap percentage; 0 disables the cache.
+     */
+    public static final Setting<ByteSizeValue> CACHE_MAX_SIZE =
+            Setting.memorySizeSetting("heb_lemmas.cache.max_size", "32mb", Property.NodeScope);
+
+    /**
+     * Number of independently locked cache shards (rounded down to a power of two).
+     */
+    public static final Setting<Integer> CACHE_SHARDS =
+            Setting.intSetting("heb_lemmas.cache.shards", 16, 1, 256, Property.NodeScope);
+
+    /**
+     * Also cache the lemma of single-token inputs (typical search-time queries) keyed on
+     * the token text, skipping tokenization and inference altogether.
+     */
+    public static final Setting<Boolean> CACHE_SINGLE_TOKEN =
+            Setting.boolSetting("heb_lemmas.cache.single_token.enabled", false, Property.NodeScope);
+
+    public static final Setting<ByteSizeValue> CACHE_SINGLE_TOKEN_MAX_SIZE =
+            Setting.memorySizeSetting("heb_lemmas.cache.single_token.max_size", "4mb", Property.NodeScope);
+
+    /**
+     * Number of ONNX Runtime sessions over the model. Each inference call leases one
+     * session exclusively, so this bounds the number of concurrent session runs.
+     */
+    public static final Setting<Integer> SESSION_POOL_SIZE =
+            Setting.intSetting("heb_lemmas.session.pool_size", 2, 1, 64, Property.NodeScope);
+
+    /**
+     * Threads used to parallelize a single operator; 0 lets ONNX Runtime choose.
+     */
+    public static final Setting<Integer> SESSION_INTRA_OP_THREADS =
+            Setting.intSetting("heb_lemmas.session.intra_op_threads", 2, 0, 256, Property.NodeScope);
+
+    /**
+     * Threads used to run independent operators in parallel (parallel execution mode only);
+     * 0 lets ONNX Runtime choose.
+     */
+    public static final Setting<Integer> SESSION_INTER_OP_THREADS =
+            Setting.intSetting("heb_lemmas.session.inter_op_threads", 1, 0, 256, Property.NodeScope);
+
+    public static final Setting<ExecutionMode> SESSION_EXECUTION_MODE =
+            Setting.enumSetting(ExecutionMode.class, "heb_lemmas.session.execution_mode",
+                    ExecutionMode.SEQUENTIAL, Property.NodeScope);
+
+    /**
+     * Largest logits output buffer (direct memory) kept per session between calls. A call
+     * whose {@code [batch, length, vocabulary]} logits need more gets a buffer for that call
+     * only. Not used by models with in-graph top-k.
+     */
+    public static final Setting<ByteSizeValue> SESSION_LOGITS_BUFFER_MAX_SIZE =
+            Setting.byteSizeSetting("heb_lemmas.session.logits_buffer.max_size", ByteSizeValue.ofMb(16),
+                    Property.NodeScope);
+
+    public static final Setting<Boolean> SESSION_CPU_ARENA =
+            Setting.boolSetting("heb_lemmas.session.cpu_arena", true, Property.NodeScope);
+
+    public static final Setting<Boolean> SESSION_MEMORY_PATTERN =
+            Setting.boolSetting("heb_lemmas.session.memory_pattern", true, Property.NodeScope);
+
+    /**
+     * Run all sessions on one ONNX Runtime thread pool sized by the intra/inter-op thread
+     * settings, instead of a pool per session.
+     */
+    public static final Setting<Boolean> SESSION_GLOBAL_THREAD_POOL =
+            Setting.boolSetting("heb_lemmas.session.global_thread_pool", false, Property.NodeScope);
+
+    /**
+     * Serialize the graph after ONNX Runtime's hardware-independent optimizations next to
+     * the extracted model on first load and create sessions from it on later starts.
+     * Ignored with {@code heb_lemmas.model.in_memory}.
+     */
+    public static final Setting<Boolean> SESSION_OPTIMIZED_GRAPH_CACHE =
+            Setting.boolSetting("heb_lemmas.session.optimized_graph_cache", true, Property.NodeScope);
+
+    /**
+     * Analysis calls (one lemmatized window or field) slower than this are logged to the
+     * {@code ai.korra.heb_lemmas.slowlog} logger. -1 disables the slow log.
+     */
+    public static final Setting<TimeValue> SLOWLOG_THRESHOLD =
+            Setting.timeSetting("heb_lemmas.slowlog.threshold", TimeValue.MINUS_ONE, TimeValue.MINUS_ONE,
+                    Property.NodeScope, Property.Dynamic);
+
+    /**
+     * Create the sessions from the model bytes read straight out of the plugin jar instead
+     * of extracting the model under {@code path.data}. Nothing is written to disk, at the
+     * cost of holding a copy of the model on the heap while the sessions are created.
+     */
+    public static final Setting<Boolean> MODEL_IN_MEMORY =
+            Setting.boolSetting("heb_lemmas.model.in_memory", false, Property.NodeScope);
+
+    /**
+     * Bundled model variant: {@code default} ({@code model.onnx}) or the name of a variant
+     * exported next to it as {@code model-<variant>.onnx}, such as {@code fp32},
+     * {@code int8-static} or {@code int8-pruned}.
+     */
+    public static final Setting<String> MODEL_VARIANT =
+            Setting.simpleString("heb_lemmas.model.variant", ModelResources.DEFAULT_VARIANT,
+                    HebLemmasSettings::validateVariant, Property.NodeScope);
+
+    /**
+     * When the model is loaded: on first use by an analyzer ({@code lazy}), while the node
+     * starts without holding it up ({@code background}), or before the node finishes
+     * starting ({@code blocking}, which fails startup if the model cannot be loaded).
+     */
+    public static final Setting<LoadMode> STARTUP_LOAD =
+            Setting.enumSetting(LoadMode.class, "heb_lemmas.startup.load", LoadMode.BACKGROUND, Property.NodeScope);
+
+    /**
+     * Word-piece sequence lengths run through every session after an eager load, so the
+     * first requests do not pay for graph initialization, arena growth and JIT.
+     */
+    public static final Setting<List<Integer>> STARTUP_WARMUP_LENGTHS =
+            Setting.listSetting("heb_lemmas.startup.warmup.lengths", List.of("8", "32", "128"),
+                    HebLemmasSettings::parseWarmupLength, Property.NodeScope);
+
+    /**
+     * Warm-up runs per length and session; 0 disables the warm-up.
+     */
+    public static final Setting<Integer> STARTUP_WARMUP_ITERATIONS =
+            Setting.intSetting("heb_lemmas.startup.warmup.iterations", 2, 0, 100, Property.NodeScope);
+
+    /**
+     * Documents passed through the {@code heb_lemmatize} ingest processor that are
+     * lemmatized together. All their windows are run through the model in length-sorted
+     * padded batches bounded by the {@code heb_lemmas.batch.*} limits.
+     */
+    public static final Setting<Integer> INGEST_BATCH_MAX_DOCS =
+            Setting.intSetting("heb_lemmas.ingest.batch.max_docs", 128, 1, 10_000, Property.NodeScope);
+
+    /**
+     * How long an ingest batch waits for more documents after the first one arrives. The
+     * documents of a bulk request are queued back to back, so a short wait collects them.
+     */
+    public static final Setting<TimeValue> INGEST_BATCH_MAX_WAIT =
+            Setting.timeSetting("heb_lemmas.ingest.batch.max_wait", TimeValue.timeValueMillis(2),
+                    TimeValue.ZERO, Property.NodeScope);
+
+    /**
+     * Threads that collect and lemmatize ingest batches.
+     */
+    public static final Setting<Integer> INGEST_BATCH_WORKERS =
+            Setting.intSetting("heb_lemmas.ingest.batch.workers", 2, 1, 64, Property.NodeScope);
+
+    /**
+     * Analysis calls allowed to wait for or run inference at the same time; 0 (the default)
+     * removes the limit, so every call is lemmatized by the model however long it waits.
+     * Cache hits are not counted, and ingest batches are bounded by their own workers.
+     */
+    public static final Setting<Integer> ADMISSION_MAX_IN_FLIGHT =
+            Setting.intSetting("heb_lemmas.admission.max_in_flight", 0, 0, 100_000, Property.NodeScope);
+
+    /**
+     * How long a call waits for an in-flight slot before the overload policy applies.
+     */
+    public static final Setting<TimeValue> ADMISSION_QUEUE_TIMEOUT =
+            Setting.timeSetting("heb_lemmas.admission.queue_timeout", TimeValue.timeValueMillis(100),
+                    TimeValue.ZERO, Property.NodeScope, Property.Dynamic);
+
+    /**
+     * What a call that is not admitted returns: its tokens unchanged ({@code passthrough}),
+     * the tokens with their proclitic prefixes stripped by rule ({@code prefix_strip}), or a
+     * rejection that fails the request with a 429 ({@code reject}, the default). Only
+     * {@code passthrough} and {@code prefix_strip} let what is indexed depend on load.
+     */
+    public static final Setting<OverloadPolicy> ADMISSION_OVERLOAD_POLICY =
+            Setting.enumSetting(OverloadPolicy.class, "heb_lemmas.admission.overload_policy",
+                    OverloadPolicy.REJECT, Property.NodeScope, Property.Dynamic);
+
+    public enum OverloadPolicy {
+        PASSTHROUGH,
+        PREFIX_STRIP,
+        REJECT
+    }
+
+    public enum LoadMode {
+        LAZY,
+        BACKGROUND,
+        BLOCKING
+    }
+
+    private HebLemmasSettings() {
+    }
+
+    private static void validateVariant(String value) {
+        if (!value.matches("[a-z0-9][a-z0-9_-]*")) {
+            throw new IllegalArgumentException(
+                    "heb_lemmas.model.variant must be lowercase letters, digits, '-' and '_', got [" + value + "]");
+        }
+    }
+
+    private static Integer parseWarmupLength(String value) {
+        int length = Integer.parseInt(value.trim());
+        if (length < 3 || length > 512) {
+            throw new IllegalArgumentException(
+                    "heb_lemmas.startup.warmup.lengths must be between 3 and 512, got [" + value + "]");
+        }
+        return length;
+    }
+
+    public static List<Setting<?>> all() {
+        return List.of(
+                BATCH_MAX_SIZE,
+                BATCH_MAX_WAIT,
+                BATCH_MAX_TOKENS,
+                BATCH_WORKERS,
+                BATCH_TIMEOUT,
+                CACHE_MAX_SIZE,
+                CACHE_SHARDS,
+                CACHE_SINGLE_TOKEN,
+                CACHE_SINGLE_TOKEN_MAX_SIZE,
+                SESSION_POOL_SIZE,
+                SESSION_INTRA_OP_THREADS,
+                SESSION_INTER_OP_THREADS,
+                SESSION_EXECUTION_MODE,
+                SESSION_LOGITS_BUFFER_MAX_SIZE,
+                SESSION_CPU_ARENA,
+                SESSION_MEMORY_PATTERN,
+                SESSION_GLOBAL_THREAD_POOL,
+                SESSION_OPTIMIZED_GRAPH_CACHE,
+                SLOWLOG_THRESHOLD,
+                MODEL_IN_MEMORY,
+                MODEL_VARIANT,
+                STARTUP_LOAD,
+                STARTUP_WARMUP_LENGTHS,
+                STARTUP_WARMUP_ITERATIONS,
+                INGEST_BATCH_MAX_DOCS,
+                INGEST_BATCH_MAX_WAIT,
+                INGEST_BATCH_WORKERS,
+                ADMISSION_MAX_IN_FLIGHT,
+                ADMISSION_QUEUE_TIMEOUT,
+                ADMISSION_OVERLOAD_POLICY
+        );
+    }
+}
@@ -0,0 +1,224 @@
+package ai.korra;
+
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.cluster.metadata.ProjectId;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * {@code heb_lemmatize} ingest processor: writes the lemmatized text of a field into a
+ * target field, so data nodes can index it with a {@code whitespace} analyzer instead of
+ * running the model on every replica and reindex.
+ *
+ * The field value (a string or a list of strings) is split with the standard tokenizer.
+ * Tokens with a Hebrew letter are replaced by their lemma, other tokens are kept, and the
+ * result is joined with single spaces. The output is this token join, not the original text:
+ * punctuation and the original spacing are dropped, so it is written next to the source
+ * field rather than over it. Documents are handed to the node's
+ * {@link IngestBatcher}, so the documents of a bulk request are lemmatized together.
+ *
+ * Options:
+ * <ul>
+ *   <li>{@code field}: field to lemmatize</li>
+ *   <li>{@code target_field}: field to write the lemmatized text to, defaults to {@code <field>_lemmas}</li>
+ *   <li>{@code ignore_missing}: leave documents without {@code field} unchanged instead of failing</li>
+ *   <li>{@code window_size}, {@code window_overlap}: as for the {@code heb_lemmas} filter</li>
+ * </ul>
+ */
+public final class HebLemmatizeProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "heb_lemmatize";
+
+    private static final int MAX_WINDOW_SIZE = 512;
+
+    private final String field;
+    private final String targetField;
+    private final boolean ignoreMissing;
+    private final int windowSize;
+    private final int windowOverlap;
+    private final IngestBatcher batcher;
+    private final ThreadContext threadContext;
+
+    HebLemmatizeProcessor(String tag, String description, String field, String targetField, boolean ignoreMissing,
+                          int windowSize, int windowOverlap, IngestBatcher batcher, ThreadContext threadContext) {
+        super(tag, description);
+        this.field = field;
+        this.targetField = targetField;
+        this.ignoreMissing = ignoreMissing;
+        this.windowSize = windowSize;
+        this.windowOverlap = windowOverlap;
+        this.batcher = batcher;
+        this.threadContext = threadContext;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        throw new UnsupportedOperationException("[" + TYPE + "] processor is asynchronous");
+    }
+
+    @Override
+    public void execute(IngestDocument document, BiConsumer<IngestDocument, Exception> handler) {
+        List<Text> texts = new ArrayList<>();
+        boolean list;
+        try {
+            Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+            if (value == null) {
+                if (!ignoreMissing) {
+                    throw new IllegalArgumentException("field [" + field + "] is null, cannot lemmatize");
+                }
+                handler.accept(document, null);
+                return;
+            }
+            list = value instanceof List<?>;
+            for (Object item : list ? (List<?>) value : List.of(value)) {
+                if (!(item instanceof String text)) {
+                    throw new IllegalArgumentException("field [" + field + "] of type [" + item.getClass().getName()
+                            + "] cannot be lemmatized, expected a string or a list of strings");
+                }
+                texts.add(Text.of(text));
+            }
+        } catch (Exception e) {
+            handler.accept(null, e);
+            return;
+        }
+
+        List<List<String>> words = new ArrayList<>(texts.size());
+        for (Text text : texts) {
+            words.add(text.words);
+        }
+        Completion completion = new Completion(document, texts, list, handler);
+        // Captures the caller's thread context; the batcher completes the job on another thread
+        Runnable inContext = threadContext.preserveContext(completion);
+        batcher.submit(new IngestBatcher.Job(words, windowSize, windowOverlap, (lemmas, failure) -> {
+            completion.lemmas = lemmas;
+            completion.failure = failure;
+            inContext.run();
+        }));
+    }
+
+    /**
+     * Writes the lemmas of one document, or fails it, once its batch is done.
+     */
+    private final class Completion implements Runnable {
+        private final IngestDocument document;
+        private final List<Text> texts;
+        private final boolean list;
+        private final BiConsumer<IngestDocument, Exception> handler;
+        private List<String[]> lemmas;
+        private Exception failure;
+
+        Completion(IngestDocument document, List<Text> texts, boolean list,
+                   BiConsumer<IngestDocument, Exception> handler) {
+            this.document = document;
+            this.texts = texts;
+            this.list = list;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            if (failure != null) {
+                handler.accept(null, failure);
+                return;
+            }
+            List<String> lemmatized = new ArrayList<>(texts.size());
+            for (int i = 0; i < texts.size(); i++) {
+                lemmatized.add(texts.get(i).join(lemmas.get(i)));
+            }
+            document.setFieldValue(targetField, list ? lemmatized : lemmatized.get(0));
+            handler.accept(document, null);
+        }
+    }
+
+    /**
+     * Tokens of one field value and which of them are Hebrew words to lemmatize.
+     */
+    private static final class Text {
+        final List<String> tokens = new ArrayList<>();
+        final List<String> words = new ArrayList<>();
+        final List<Integer> wordTokens = new ArrayList<>();
+
+        static Text of(String value) throws IOException {
+            Text text = new Text();
+            try (StandardTokenizer tokenizer = new StandardTokenizer()) {
+                CharTermAttribute term = tokenizer.addAttribute(CharTermAttribute.class);
+                tokenizer.setReader(new StringReader(value));
+                tokenizer.reset();
+                while (tokenizer.incrementToken()) {
+                    String token = term.toString();
+                    if (TokenClassifier.HEBREW.shouldLemmatize(term.buffer(), term.length())) {
+                        text.wordTokens.add(text.tokens.size());
+                        text.words.add(token);
+                    }
+                    text.tokens.add(token);
+                }
+                tokenizer.end();
+            }
+            return text;
+        }
+
+        String join(String[] lemmas) {
+            List<String> result = new ArrayList<>(tokens);
+            for (int i = 0; i < lemmas.length; i++) {
+                result.set(wordTokens.get(i), lemmas[i]);
+            }
+            return String.join(" ", result);
+        }
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        private final IngestBatcher batcher;
+        private final ThreadContext threadContext;
+
+        Factory(IngestBatcher batcher, ThreadContext threadContext) {
+            this.batcher = batcher;
+            this.threadContext = threadContext;
+        }
+
+        @Override
+        public HebLemmatizeProcessor create(Map<String, Processor.Factory> registry, String tag, String description,
+                                            Map<String, Object> config, ProjectId projectId) {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field",
+                    field + "_lemmas");
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            int windowSize = ConfigurationUtils.readIntProperty(TYPE, tag, config, "window_size",
+                    HebTokenFilter.DEFAULT_WINDOW_SIZE);
+            int windowOverlap = ConfigurationUtils.readIntProperty(TYPE, tag, config, "window_overlap",
+                    Math.min(HebTokenFilter.DEFAULT_WINDOW_OVERLAP, Math.max(0, windowSize / 4)));
+
+            if (windowSize != 0 && (windowSize < 8 || windowSize > MAX_WINDOW_SIZE)) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "window_size",
+                        "must be 0 or between 8 and " + MAX_WINDOW_SIZE + ", got [" + windowSize + "]");
+            }
+            if (windowOverlap < 0 || (windowSize > 0 && windowOverlap * 2 >= windowSize - 2)) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "window_overlap",
+                        "must be non-negative and less than half of [window_size], got [" + windowOverlap + "]");
+            }
+            return new HebLemmatizeProcessor(tag, description, field, targetField, ignoreMissing, windowSize,
+                    windowOverlap, batcher, threadContext);
+        }
+    }
+}
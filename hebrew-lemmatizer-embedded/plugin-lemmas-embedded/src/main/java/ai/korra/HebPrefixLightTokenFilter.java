@@ -0,0 +1,53 @@
+package ai.korra;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+
+/**
+ * Rule-based Hebrew light stemmer: strips proclitic prefixes (see {@link HebrewPrefixes})
+ * and replaces final letter forms with regular ones.
+ *
+ * Works in place on the term buffer and allocates nothing per token, so it costs
+ * microseconds where {@code heb_lemmas} runs the model. Tokens marked as keywords are
+ * left unchanged.
+ */
+public class HebPrefixLightTokenFilter extends TokenFilter {
+
+    private final int minStemLength;
+    private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+    private final KeywordAttribute keywordAttr = addAttribute(KeywordAttribute.class);
+
+    public HebPrefixLightTokenFilter(TokenStream input) {
+        this(input, HebrewPrefixes.DEFAULT_MIN_STEM);
+    }
+
+    public HebPrefixLightTokenFilter(TokenStream input, int minStemLength) {
+        super(input);
+        this.minStemLength = minStemLength;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (!input.incrementToken()) {
+            return false;
+        }
+        if (keywordAttr.isKeyword()) {
+            return true;
+        }
+
+        char[] buffer = termAttr.buffer();
+        int length = termAttr.length();
+        int prefix = HebrewPrefixes.prefixLength(buffer, length, minStemLength);
+        if (prefix > 0) {
+            length -= prefix;
+            System.arraycopy(buffer, prefix, buffer, 0, length);
+            termAttr.setLength(length);
+        }
+        HebrewPrefixes.normalizeFinals(buffer, length);
+        return true;
+    }
+}
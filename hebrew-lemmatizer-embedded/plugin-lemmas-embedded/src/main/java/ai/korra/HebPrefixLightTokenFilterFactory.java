@@ -0,0 +1,36 @@
+package ai.korra;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+
+/**
+ * Factory for the rule-based {@code heb_prefix_light} token filter.
+ *
+ * Settings:
+ * <ul>
+ *   <li>{@code min_stem_length}: chars that must remain after stripping a prefix; words
+ *       that would be shorter keep their prefix</li>
+ * </ul>
+ */
+public class HebPrefixLightTokenFilterFactory extends AbstractTokenFilterFactory {
+
+    private final int minStemLength;
+
+    public HebPrefixLightTokenFilterFactory(IndexSettings indexSettings, Environment environment, String name,
+                                            Settings settings) {
+        super(name);
+        this.minStemLength = settings.getAsInt("min_stem_length", HebrewPrefixes.DEFAULT_MIN_STEM);
+        if (minStemLength < 1) {
+            throw new IllegalArgumentException("[min_stem_length] must be at least 1 for filter [" + name
+                    + "], got [" + minStemLength + "]");
+        }
+    }
+
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        return new HebPrefixLightTokenFilter(tokenStream, minStemLength);
+    }
+}
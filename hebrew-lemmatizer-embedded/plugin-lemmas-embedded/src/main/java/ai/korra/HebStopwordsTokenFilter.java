@@ -2,25 +2,32 @@ package ai.korra;
 
 import java.io.IOException;
 
+import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.FilteringTokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
 /**
  * Hebrew stopwords filter.
+ *
+ * Terms are looked up straight from the term buffer, so accepting a token allocates nothing.
  */
 public class HebStopwordsTokenFilter extends FilteringTokenFilter {
 
-    private final Stopwords stopwords = new Stopwords();
+    private final Stopwords stopwords;
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
 
     public HebStopwordsTokenFilter(TokenStream input) {
+        this(input, Stopwords.DEFAULT);
+    }
+
+    public HebStopwordsTokenFilter(TokenStream input, CharArraySet stopwords) {
         super(input);
+        this.stopwords = new Stopwords(stopwords);
     }
 
     @Override
     public boolean accept() throws IOException {
-        String term = termAttr.toString();
-        return stopwords.isNotStopword(term);
+        return !stopwords.isStopword(termAttr.buffer(), termAttr.length());
     }
 }
@@ -1,22 +1,84 @@
 package ai.korra;
 
+import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.TokenStream;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.elasticsearch.index.analysis.Analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Factory for Hebrew stopwords token filter.
+ *
+ * Settings:
+ * <ul>
+ *   <li>{@code stopwords}: list of stopwords, {@code _hebrew_} for the built-in list (default)
+ *       or {@code _none_}</li>
+ *   <li>{@code stopwords_path}: file with one stopword per line, relative to the config directory</li>
+ *   <li>{@code lemma_aware}: also remove the lemmas of the stopwords, for use after {@code heb_lemmas}</li>
+ * </ul>
+ *
+ * The stopword set is compiled once per filter definition and shared by all its token streams.
+ * With {@code lemma_aware}, the built-in stopwords use the lemmas computed when the plugin was
+ * built. Other stopwords are lemmatized by the model when the filter is created, and the
+ * filter fails if that is not possible.
  */
 public class HebStopwordsTokenFilterFactory extends AbstractTokenFilterFactory {
 
+    private final CharArraySet stopwords;
+
     public HebStopwordsTokenFilterFactory(IndexSettings indexSettings, Environment environment, String name, Settings settings) {
         super(name);
+        CharArraySet words = Analysis.parseWords(environment, settings, "stopwords", Stopwords.DEFAULT,
+                Map.of("_hebrew_", Stopwords.DEFAULT), false);
+        if (settings.getAsBoolean("lemma_aware", false)) {
+            words = withLemmas(name, words);
+        }
+        this.stopwords = CharArraySet.unmodifiableSet(words);
+    }
+
+    /**
+     * Adds the lemma of every stopword, so inflected stopwords still match once the
+     * stream has been lemmatized.
+     */
+    private static CharArraySet withLemmas(String name, CharArraySet words) {
+        CharArraySet result = new CharArraySet(words.size() * 2, false);
+        result.addAll(words);
+        List<List<String>> custom = new ArrayList<>();
+        for (Object word : words) {
+            char[] chars = (char[]) word;
+            String lemma = Stopwords.DEFAULT_LEMMAS.get(chars, 0, chars.length);
+            if (lemma != null) {
+                result.add(lemma);
+            } else {
+                custom.add(List.of(new String(chars)));
+            }
+        }
+        if (custom.isEmpty()) {
+            return result;
+        }
+
+        // In one call, without the admission limit, so the set cannot depend on load
+        List<List<String>> lemmas;
+        try {
+            lemmas = OnnxLemmatizer.getInstance().lemmatizeAll(custom);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("[lemma_aware] stopwords of filter [" + name + "] could not be"
+                    + " lemmatized; remove [lemma_aware] or the stopwords that are not in [_hebrew_]", e);
+        }
+        for (List<String> lemma : lemmas) {
+            result.add(lemma.get(0));
+        }
+        return result;
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new HebStopwordsTokenFilter(tokenStream);
+        return new HebStopwordsTokenFilter(tokenStream, stopwords);
     }
 }
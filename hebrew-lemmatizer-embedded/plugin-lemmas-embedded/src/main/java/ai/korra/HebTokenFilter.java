@@ -2,35 +2,101 @@ package ai.korra;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 
 /**
  * Hebrew token filter that performs lemmatization using an embedded ONNX model.
+ *
+ * With a positive window size the stream is lemmatized in overlapping windows of at
+ * most {@code windowSize} word pieces. Lemmas are taken from the middle of each window,
+ * so every word sees up to {@code windowOverlap} word pieces of context on each side,
+ * and tokens are emitted as soon as their window completes. A window size of 0 sends
+ * the whole field as one sequence, unless it is longer than the model accepts
+ * ({@link OnnxLemmatizer#MAX_SEQUENCE_LENGTH}), in which case it is split into windows of
+ * that size with {@value #DEFAULT_WINDOW_OVERLAP} pieces of overlap.
+ *
+ * With a classifier other than {@link TokenClassifier#ALL} (the default), tokens without
+ * any char from its classes bypass the model and are emitted unchanged. They are either
+ * left out of the model input or stand in it as a single-piece {@link OnnxLemmatizer#CONTEXT_MARKER}.
+ *
+ * With a {@link LemmaLexicon}, tokens found in it take the lexicon lemma and the model
+ * only runs for windows that still have unresolved tokens to emit; resolved tokens stay
+ * in the model input as context.
+ *
+ * Each upstream token's attribute state is captured when it is read and restored when
+ * its lemma is emitted, so offsets, position increments, types and any other attributes
+ * pass through unchanged; only the term text is replaced.
+ *
+ * With {@code preserveOriginal}, each token is emitted as read, followed by its lemma at
+ * the same position with type {@value #LEMMA_TYPE} when the two differ.
  */
 public class HebTokenFilter extends TokenFilter {
 
+    // Whole field; 128 is recommended for long fields, at the cost of lemmas near window edges
+    public static final int DEFAULT_WINDOW_SIZE = 0;
+    public static final int DEFAULT_WINDOW_OVERLAP = 32;
+    public static final String LEMMA_TYPE = "<HEB_LEMMA>";
+
     private OnnxLemmatizer lemmatizer;
     private final HebDebugger debugger = new HebDebugger();
 
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
-    private final OffsetAttribute offsetAttr = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncAttr = addAttribute(PositionIncrementAttribute.class);
     private final TypeAttribute typeAttr = addAttribute(TypeAttribute.class);
-    private final PositionIncrementAttribute posAttr = addAttribute(PositionIncrementAttribute.class);
 
-    private boolean emitExtraToken;
-    private List<String> lemmaList = new ArrayList<>();
-    private final List<String> tokenList = new ArrayList<>();
+    private final int windowSize;
+    private final int windowOverlap;
+    private final TokenClassifier classifier;
+    private final boolean contextMarkers;
+    private final LemmaLexicon lexicon;
+    private final boolean preserveOriginal;
     private boolean initialized = false;
+    // True after emitting the original of the current token; its lemma is emitted next at posInc 0
+    private boolean lemmaPending;
+
+    // Ring of buffered upstream tokens, addressed by sequence number & mask:
+    // [start, emitted) left context, [emitted, lemmatized) ready to emit,
+    // [lemmatized, end) read but not yet lemmatized
+    private State[] states = new State[64];
+    private String[] terms = new String[64];
+    private String[] lemmas = new String[64];
+    private int[] pieceCounts = new int[64];
+    private boolean[] bypassed = new boolean[64];
+    private int mask = 63;
+    private int start;
+    private int emitted;
+    private int lemmatized;
+    private int end;
+    private int nextStart;
+    private int windowPieces;
+    private boolean inputExhausted;
+    private final List<String> window = new ArrayList<>();
 
     public HebTokenFilter(TokenStream input) {
+        this(input, DEFAULT_WINDOW_SIZE, DEFAULT_WINDOW_OVERLAP);
+    }
+
+    public HebTokenFilter(TokenStream input, int windowSize, int windowOverlap) {
+        this(input, windowSize, windowOverlap, TokenClassifier.ALL, false, null, false);
+    }
+
+    HebTokenFilter(TokenStream input, int windowSize, int windowOverlap, TokenClassifier classifier,
+                   boolean contextMarkers, LemmaLexicon lexicon, boolean preserveOriginal) {
         super(input);
+        this.windowSize = windowSize > 0 ? windowSize : OnnxLemmatizer.MAX_SEQUENCE_LENGTH;
+        this.windowOverlap = windowSize > 0 ? windowOverlap : DEFAULT_WINDOW_OVERLAP;
+        this.classifier = classifier;
+        this.contextMarkers = contextMarkers;
+        this.lexicon = lexicon;
+        this.preserveOriginal = preserveOriginal;
     }
 
     private void initializeLemmatizer() throws IOException {
@@ -49,58 +115,193 @@ public class HebTokenFilter extends TokenFilter {
 
     @Override
     public void reset() throws IOException {
-        emitExtraToken = false;
-        lemmaList.clear();
-        tokenList.clear();
         super.reset();
+        Arrays.fill(states, null);
+        Arrays.fill(terms, null);
+        Arrays.fill(lemmas, null);
+        start = 0;
+        emitted = 0;
+        lemmatized = 0;
+        end = 0;
+        nextStart = 0;
+        windowPieces = 0;
+        inputExhausted = false;
+        lemmaPending = false;
+        window.clear();
     }
 
     @Override
     public boolean incrementToken() throws IOException {
         initializeLemmatizer();
 
-        if (emitExtraToken) {
-            produceTerm();
-            return true;
+        if (emitted == lemmatized && !lemmatizeNextWindow()) {
+            return false;
         }
 
-        tokenList.clear();
-        if (input.incrementToken()) {
-            tokenList.add(termAttr.toString());
+        int slot = emitted & mask;
+        restoreState(states[slot]);
+        if (lemmaPending) {
+            termAttr.setEmpty().append(lemmas[slot]);
+            posIncAttr.setPositionIncrement(0);
+            typeAttr.setType(LEMMA_TYPE);
+            lemmaPending = false;
+        } else if (preserveOriginal && !lemmas[slot].equals(terms[slot])) {
+            // The restored state still holds the original term
+            lemmaPending = true;
+            return true;
         } else {
-            return false;
+            termAttr.setEmpty().append(lemmas[slot]);
         }
+        emitted++;
+        return true;
+    }
 
-        while (input.incrementToken()) {
-            tokenList.add(termAttr.toString());
-        }
+    /**
+     * Reads upstream tokens until the window is full (or the stream ends when windowing
+     * is off), lemmatizes it and marks the tokens that have enough right context (or all
+     * remaining ones at the end of the stream) as ready. The tail of those tokens stays
+     * buffered as left context for the next window.
+     *
+     * @return false if there are no more tokens
+     */
+    private boolean lemmatizeNextWindow() throws IOException {
+        dropTokens(nextStart);
 
-        try {
-            lemmaList = lemmatizer.lemmatize(tokenList);
-        } catch (Exception e) {
-            debugger.debugPrint("Lemmatization error: " + e.getMessage());
-            lemmaList = new ArrayList<>(tokenList);
+        int budget = windowSize - 2;
+        while (!inputExhausted && windowPieces < budget) {
+            if (!input.incrementToken()) {
+                inputExhausted = true;
+                break;
+            }
+            boolean bypass = !classifier.shouldLemmatize(termAttr.buffer(), termAttr.length());
+            // A bypassed token costs at most one piece (the context marker)
+            int pieces = bypass ? 1 : lemmatizer.countWordPieces(termAttr.buffer(), termAttr.length());
+            addToken(Math.max(1, pieces), bypass);
         }
 
-        if (lemmaList.isEmpty()) {
+        int windowEnd = end;
+        if (windowEnd == emitted) {
             return false;
         }
+        // The token that crossed the budget waits for the next window
+        if (windowPieces > budget && windowEnd - emitted > 1) {
+            windowEnd--;
+        }
 
-        produceTerm();
+        int commitEnd = windowEnd;
+        if (!inputExhausted || windowEnd < end) {
+            int trailing = 0;
+            while (commitEnd > emitted + 1 && trailing + pieceCounts[(commitEnd - 1) & mask] <= windowOverlap) {
+                trailing += pieceCounts[--commitEnd & mask];
+            }
+        }
+
+        lemmatizeTokens(windowEnd, commitEnd);
+        lemmatized = commitEnd;
+
+        int keepFrom = commitEnd;
+        int context = 0;
+        while (keepFrom > start && context + pieceCounts[(keepFrom - 1) & mask] <= windowOverlap) {
+            context += pieceCounts[--keepFrom & mask];
+        }
+        // Dropped once the committed tokens have been emitted
+        nextStart = keepFrom;
         return true;
     }
 
-    private void produceTerm() {
-        int origStart = offsetAttr.startOffset();
-        int origEnd = offsetAttr.endOffset();
-        String lemma = lemmaList.get(0);
+    private void addToken(int pieces, boolean bypass) throws IOException {
+        if (end - start == states.length) {
+            grow();
+        }
+        int slot = end & mask;
+        states[slot] = captureState();
+        terms[slot] = termAttr.toString();
+        if (lexicon != null && !bypass) {
+            lemmas[slot] = lexicon.lookup(termAttr.buffer(), termAttr.length());
+            OnnxLemmatizer.stats().onLexiconLookup(lemmas[slot] != null);
+        }
+        pieceCounts[slot] = pieces;
+        bypassed[slot] = bypass;
+        windowPieces += pieces;
+        end++;
+    }
+
+    private void dropTokens(int to) {
+        for (; start < to; start++) {
+            int slot = start & mask;
+            windowPieces -= pieceCounts[slot];
+            states[slot] = null;
+            terms[slot] = null;
+            lemmas[slot] = null;
+        }
+    }
+
+    private void grow() {
+        int capacity = states.length * 2;
+        State[] newStates = new State[capacity];
+        String[] newTerms = new String[capacity];
+        String[] newLemmas = new String[capacity];
+        int[] newPieceCounts = new int[capacity];
+        boolean[] newBypassed = new boolean[capacity];
+        int newMask = capacity - 1;
+        for (int i = start; i < end; i++) {
+            newStates[i & newMask] = states[i & mask];
+            newTerms[i & newMask] = terms[i & mask];
+            newLemmas[i & newMask] = lemmas[i & mask];
+            newPieceCounts[i & newMask] = pieceCounts[i & mask];
+            newBypassed[i & newMask] = bypassed[i & mask];
+        }
+        states = newStates;
+        terms = newTerms;
+        lemmas = newLemmas;
+        pieceCounts = newPieceCounts;
+        bypassed = newBypassed;
+        mask = newMask;
+    }
+
+    /**
+     * Lemmatizes the buffered tokens {@code [start, windowEnd)} and stores the lemmas of
+     * {@code [emitted, commitEnd)}. Lexicon lemmas stored when the tokens were read are kept.
+     */
+    private void lemmatizeTokens(int windowEnd, int commitEnd) {
+        window.clear();
+        boolean unresolved = false;
+        for (int i = emitted; i < commitEnd && !unresolved; i++) {
+            int slot = i & mask;
+            unresolved = !bypassed[slot] && lemmas[slot] == null;
+        }
+        for (int i = start; i < windowEnd; i++) {
+            int slot = i & mask;
+            if (!bypassed[slot]) {
+                window.add(terms[slot]);
+            } else if (contextMarkers) {
+                window.add(OnnxLemmatizer.CONTEXT_MARKER);
+            }
+        }
 
-        offsetAttr.setOffset(origStart, origEnd);
-        typeAttr.setType(typeAttr.type());
-        termAttr.setEmpty().append(lemma);
-        posAttr.setPositionIncrement(1);
+        List<String> result = window;
+        if (unresolved) {
+            try {
+                result = lemmatizer.lemmatize(window);
+            } catch (EsRejectedExecutionException e) {
+                // heb_lemmas.admission.overload_policy: reject, fail the request instead of indexing the raw tokens
+                throw e;
+            } catch (Exception e) {
+                OnnxLemmatizer.stats().onFallback();
+                debugger.debugPrint("Lemmatization error: " + e.getMessage());
+            }
+        }
 
-        lemmaList.remove(0);
-        emitExtraToken = !lemmaList.isEmpty();
+        int next = 0;
+        for (int i = start; i < commitEnd; i++) {
+            int slot = i & mask;
+            boolean inWindow = !bypassed[slot] || contextMarkers;
+            if (i >= emitted && lemmas[slot] == null) {
+                lemmas[slot] = bypassed[slot] ? terms[slot] : result.get(next);
+            }
+            if (inWindow) {
+                next++;
+            }
+        }
     }
 }
@@ -7,17 +7,105 @@ import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
 /**
  * Factory for Hebrew lemmatization token filter.
+ *
+ * Settings:
+ * <ul>
+ *   <li>{@code window_size}: max word pieces per inference window, 0 (the default) lemmatizes the whole field at once</li>
+ *   <li>{@code window_overlap}: word pieces of context kept on each side of a window</li>
+ *   <li>{@code lemmatize_chars}: char classes ({@code hebrew}, {@code latin}, {@code digit} or {@code all},
+ *       the default) a token must contain to be sent to the model; other tokens pass through unchanged</li>
+ *   <li>{@code bypass_context}: {@code omit} leaves bypassed tokens out of the model input,
+ *       {@code marker} keeps each as a single {@code [UNK]} piece of context</li>
+ *   <li>{@code mode}: {@code model} runs every token through the model, {@code lexicon_first}
+ *       looks tokens up in a {@link LemmaLexicon} and only runs the model for the rest</li>
+ *   <li>{@code lexicon_path}: lexicon file relative to {@code <config>/heb-lemmatizer}; the lexicon
+ *       bundled in the plugin is used if not set</li>
+ *   <li>{@code preserve_original}: also emit each token as read, with its lemma (when different)
+ *       at the same position</li>
+ * </ul>
  */
 public class HebTokenFilterFactory extends AbstractTokenFilterFactory {
 
+    private static final int MAX_WINDOW_SIZE = 512;
+
+    private final int windowSize;
+    private final int windowOverlap;
+    private final TokenClassifier classifier;
+    private final boolean contextMarkers;
+    private final LemmaLexicon lexicon;
+    private final boolean preserveOriginal;
+
     public HebTokenFilterFactory(IndexSettings indexSettings, Environment environment, String name, Settings settings) {
         super(name);
+        this.windowSize = settings.getAsInt("window_size", HebTokenFilter.DEFAULT_WINDOW_SIZE);
+        this.windowOverlap = settings.getAsInt("window_overlap",
+                Math.min(HebTokenFilter.DEFAULT_WINDOW_OVERLAP, Math.max(0, windowSize / 4)));
+
+        if (windowSize != 0 && (windowSize < 8 || windowSize > MAX_WINDOW_SIZE)) {
+            throw new IllegalArgumentException("[window_size] must be 0 or between 8 and " + MAX_WINDOW_SIZE
+                    + " for filter [" + name + "], got [" + windowSize + "]");
+        }
+        if (windowOverlap < 0 || (windowSize > 0 && windowOverlap * 2 >= windowSize - 2)) {
+            throw new IllegalArgumentException("[window_overlap] must be non-negative and less than half of [window_size]"
+                    + " for filter [" + name + "], got [" + windowOverlap + "]");
+        }
+
+        try {
+            this.classifier = TokenClassifier.of(settings.getAsList("lemmatize_chars", List.of("all")));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid [lemmatize_chars] for filter [" + name + "]: " + e.getMessage(), e);
+        }
+        String bypassContext = settings.get("bypass_context", "omit");
+        if (!bypassContext.equals("omit") && !bypassContext.equals("marker")) {
+            throw new IllegalArgumentException("[bypass_context] must be [omit] or [marker] for filter [" + name
+                    + "], got [" + bypassContext + "]");
+        }
+        this.contextMarkers = bypassContext.equals("marker");
+
+        this.preserveOriginal = settings.getAsBoolean("preserve_original", false);
+
+        String mode = settings.get("mode", "model");
+        if (mode.equals("lexicon_first")) {
+            this.lexicon = loadLexicon(environment, name, settings.get("lexicon_path"));
+        } else if (mode.equals("model")) {
+            this.lexicon = null;
+        } else {
+            throw new IllegalArgumentException("[mode] must be [model] or [lexicon_first] for filter [" + name
+                    + "], got [" + mode + "]");
+        }
+    }
+
+    private static LemmaLexicon loadLexicon(Environment environment, String name, String lexiconPath) {
+        try {
+            if (lexiconPath == null) {
+                LemmaLexicon bundled = LemmaLexicon.bundled();
+                if (bundled == null) {
+                    throw new IllegalArgumentException("[lexicon_first] mode requires [lexicon_path] for filter [" + name
+                            + "], this plugin build does not bundle a lexicon");
+                }
+                return bundled;
+            }
+            Path base = environment.configDir().resolve("heb-lemmatizer").normalize();
+            Path path = base.resolve(lexiconPath).normalize();
+            if (!path.startsWith(base)) {
+                throw new IllegalArgumentException("[lexicon_path] must be inside " + base + " for filter [" + name
+                        + "], got [" + lexiconPath + "]");
+            }
+            return LemmaLexicon.load(path);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to load lexicon for filter [" + name + "]: " + e.getMessage(), e);
+        }
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new HebTokenFilter(tokenStream);
+        return new HebTokenFilter(tokenStream, windowSize, windowOverlap, classifier, contextMarkers, lexicon,
+                preserveOriginal);
     }
 }
@@ -0,0 +1,100 @@
+package ai.korra;
+
+/**
+ * Rule-based detection of Hebrew proclitic prefixes (ו ה ב כ ל מ ש and their combinations,
+ * such as וה, שב, מה, וכש), used by {@code heb_prefix_light} and where the model is not run.
+ *
+ * The prefix is recognized by a small state machine over the term buffer, following the
+ * order in which the proclitics combine: an optional ו, then ש or כש, then one of ב כ ל מ,
+ * then the article ה. Nothing is allocated.
+ */
+final class HebrewPrefixes {
+
+    static final int DEFAULT_MIN_STEM = 3;
+
+    private static final int START = 0;
+    private static final int CONJUNCTION = 1;   // after ו
+    private static final int RELATIVE = 2;      // after ש or כש
+    private static final int KAF = 3;           // after כ, which may start כש
+    private static final int PREPOSITION = 4;   // after ב ל מ or a כ that is not כש
+    private static final int DONE = 5;          // after the article ה
+
+    private static final int MAX_PREFIX = 4;
+
+    private HebrewPrefixes() {
+    }
+
+    /**
+     * Length of the longest proclitic prefix of the first {@code length} chars of
+     * {@code buffer} that leaves at least {@code minStem} chars, or 0.
+     */
+    static int prefixLength(char[] buffer, int length, int minStem) {
+        int state = START;
+        int best = 0;
+        int limit = Math.min(MAX_PREFIX, length - minStem);
+        for (int i = 0; i < limit; i++) {
+            state = next(state, buffer[i]);
+            if (state < 0) {
+                break;
+            }
+            // כ is a prefix on its own; if ש follows, the next step extends it to כש
+            best = i + 1;
+        }
+        return best;
+    }
+
+    /**
+     * The word without its proclitic prefix, for the {@code prefix_strip} overload policy.
+     */
+    static String strip(String word, int minStem) {
+        char[] chars = word.toCharArray();
+        int prefix = prefixLength(chars, chars.length, minStem);
+        return prefix == 0 ? word : word.substring(prefix);
+    }
+
+    /**
+     * Replaces the final letter forms ך ם ן ף ץ in the first {@code length} chars of
+     * {@code buffer} with their regular forms, so a stem matches whatever followed it.
+     */
+    static void normalizeFinals(char[] buffer, int length) {
+        for (int i = 0; i < length; i++) {
+            switch (buffer[i]) {
+                case 'ך' -> buffer[i] = 'כ';
+                case 'ם' -> buffer[i] = 'מ';
+                case 'ן' -> buffer[i] = 'נ';
+                case 'ף' -> buffer[i] = 'פ';
+                case 'ץ' -> buffer[i] = 'צ';
+                default -> {
+                }
+            }
+        }
+    }
+
+    private static int next(int state, char c) {
+        return switch (state) {
+            case START -> switch (c) {
+                case 'ו' -> CONJUNCTION;
+                case 'ש' -> RELATIVE;
+                case 'כ' -> KAF;
+                case 'ב', 'ל', 'מ' -> PREPOSITION;
+                case 'ה' -> DONE;
+                default -> -1;
+            };
+            case CONJUNCTION -> switch (c) {
+                case 'ש' -> RELATIVE;
+                case 'כ' -> KAF;
+                case 'ב', 'ל', 'מ' -> PREPOSITION;
+                case 'ה' -> DONE;
+                default -> -1;
+            };
+            case RELATIVE -> switch (c) {
+                case 'ב', 'כ', 'ל', 'מ' -> PREPOSITION;
+                case 'ה' -> DONE;
+                default -> -1;
+            };
+            case KAF -> c == 'ש' ? RELATIVE : -1;
+            case PREPOSITION -> c == 'ה' ? DONE : -1;
+            default -> -1;
+        };
+    }
+}
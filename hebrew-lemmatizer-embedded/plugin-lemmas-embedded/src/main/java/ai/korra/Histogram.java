@@ -0,0 +1,119 @@
+package ai.korra;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative values.
+ *
+ * Each power of two is split into 4 buckets, so percentiles are reported within about
+ * 25% of the true value; recording is a couple of atomic increments.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = SUB_BUCKETS * 63;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucket(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    Summary summary() {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long maxValue = max.get();
+        return new Summary(total, total == 0 ? 0 : sum.sum() / (double) total,
+                percentile(snapshot, total, 0.50, maxValue),
+                percentile(snapshot, total, 0.90, maxValue),
+                percentile(snapshot, total, 0.99, maxValue),
+                maxValue);
+    }
+
+    private static long percentile(long[] snapshot, long total, double quantile, long maxValue) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    private static int bucket(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * (exponent - 1) + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+        return lower + (1L << (exponent - 2)) - 1;
+    }
+
+    /**
+     * Point-in-time distribution summary.
+     */
+    record Summary(long count, double avg, long p50, long p90, long p99, long max) implements Writeable {
+
+        Summary(StreamInput in) throws IOException {
+            this(in.readVLong(), in.readDouble(), in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong());
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(count);
+            out.writeDouble(avg);
+            out.writeVLong(p50);
+            out.writeVLong(p90);
+            out.writeVLong(p99);
+            out.writeVLong(max);
+        }
+
+        /**
+         * Writes {@code name: {count, avg, p50, p90, p99, max}}, with {@code unitSuffix}
+         * (e.g. {@code _in_micros}) appended to the value fields.
+         */
+        void toXContent(XContentBuilder builder, String name, String unitSuffix) throws IOException {
+            builder.startObject(name);
+            builder.field("count", count);
+            builder.field("avg" + unitSuffix, Math.round(avg * 100) / 100.0);
+            builder.field("p50" + unitSuffix, p50);
+            builder.field("p90" + unitSuffix, p90);
+            builder.field("p99" + unitSuffix, p99);
+            builder.field("max" + unitSuffix, max);
+            builder.endObject();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ai.korra;
+
+import ai.onnxruntime.OrtException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects sequences from concurrent analysis threads and runs them through the
+ * model as one padded batch.
+ *
+ * A worker takes the first queued sequence, then keeps collecting until the batch
+ * is full, the padded token budget is reached or the wait window expires. Under load
+ * the queue fills while the previous batch runs, so batches grow without waiting.
+ *
+ * A batch that fails, including with an {@link Error} such as running out of direct
+ * memory, fails all of its requests and the worker moves on to the next one. A caller
+ * waits at most {@code timeoutNanos} for its result.
+ */
+final class InferenceBatcher implements AutoCloseable {
+
+    /**
+     * Runs one padded batch and fills in the top-k predictions of every request.
+     */
+    interface BatchRunner {
+        void run(List<Request> batch, int maxLen) throws OrtException;
+    }
+
+    /**
+     * One encoded sequence ([CLS] ... [SEP]) and the positions whose predictions are needed.
+     */
+    static final class Request {
+        final long[] ids;
+        final int[] positions;
+        int[][] topK;
+
+        private final CompletableFuture<int[][]> result = new CompletableFuture<>();
+
+        Request(long[] ids, int[] positions) {
+            this.ids = ids;
+            this.positions = positions;
+        }
+
+        int length() {
+            return ids.length;
+        }
+    }
+
+    private final BatchRunner runner;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int maxBatchTokens;
+    private final long timeoutNanos;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    InferenceBatcher(BatchRunner runner, int maxBatchSize, long maxWaitNanos, int maxBatchTokens, int workerCount,
+                     long timeoutNanos) {
+        this.runner = runner;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        this.maxBatchTokens = maxBatchTokens;
+        this.timeoutNanos = timeoutNanos;
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "heb-lemmas-batcher-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues the request and blocks until its batch has been run, or the timeout expires.
+     */
+    int[][] infer(Request request) throws OrtException {
+        if (!running) {
+            throw new OrtException("Inference batcher is closed");
+        }
+        queue.add(request);
+        if (!running) {
+            failPending();
+        }
+        try {
+            return request.result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Not picked up yet: keep it out of a later batch. Otherwise its result is discarded
+            queue.remove(request);
+            throw new OrtException("Batched inference timed out after "
+                    + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrtException("Interrupted while waiting for batched inference");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof OrtException ortException) {
+                throw ortException;
+            }
+            throw new OrtException("Batched inference failed: " + e.getCause());
+        }
+    }
+
+    private void runWorker() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        Request carry = null;
+
+        while (running) {
+            try {
+                Request first = carry != null ? carry : queue.poll(1, TimeUnit.SECONDS);
+                carry = null;
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                int maxLen = first.length();
+                long deadline = System.nanoTime() + maxWaitNanos;
+
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    int newMaxLen = Math.max(maxLen, next.length());
+                    if ((long) newMaxLen * (batch.size() + 1) > maxBatchTokens) {
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    maxLen = newMaxLen;
+                }
+
+                runBatch(batch, maxLen);
+            } catch (InterruptedException e) {
+                if (carry != null) {
+                    batch.add(carry);
+                }
+                fail(batch, new OrtException("Inference batcher is closed"));
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        if (carry != null) {
+            fail(List.of(carry), new OrtException("Inference batcher is closed"));
+        }
+    }
+
+    private void runBatch(List<Request> batch, int maxLen) {
+        HebDebugger.log("Running inference batch: size=" + batch.size() + " maxLen=" + maxLen);
+        try {
+            runner.run(batch, maxLen);
+        } catch (Throwable t) {
+            // Also for Errors (e.g. direct memory exhausted): the waiting threads must not
+            // hang, and the next batch may well fit
+            HebDebugger.log("Inference batch failed: " + t);
+            fail(batch, t);
+            return;
+        }
+        for (Request request : batch) {
+            request.result.complete(request.topK);
+        }
+    }
+
+    private static void fail(List<Request> batch, Throwable t) {
+        for (Request request : batch) {
+            request.result.completeExceptionally(t);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        failPending();
+    }
+
+    private void failPending() {
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        fail(pending, new OrtException("Inference batcher is closed"));
+    }
+}
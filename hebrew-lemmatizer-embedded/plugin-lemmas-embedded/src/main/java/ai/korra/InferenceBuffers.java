@@ -0,0 +1,143 @@
+package ai.korra;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Direct, native-order buffers reused across inference calls.
+ *
+ * ONNX Runtime wraps direct buffers without copying, so inputs are written straight
+ * into native memory and the logits output is bound to a preallocated buffer that
+ * is read only at the positions we need. Also holds the heap scratch used to encode
+ * tokens on the analysis thread.
+ *
+ * The lemmatizer keeps one instance per session and leases it for each call, so the
+ * native memory held does not grow with the number of analysis threads. A logits
+ * buffer larger than {@code maxRetainedLogits} floats is allocated for its call only
+ * and not kept.
+ */
+final class InferenceBuffers {
+
+    private static final int POSITION_BLOCK = 64;
+
+    private final int maxRetainedLogits;
+
+    private LongBuffer inputIds = allocateLongs(0);
+    private LongBuffer attentionMask = allocateLongs(0);
+    private LongBuffer tokenTypeIds = allocateLongs(0);
+    private FloatBuffer logits = allocateFloats(0);
+    private LongBuffer positions = allocateLongs(0);
+    private LongBuffer topKIndices = allocateLongs(0);
+    private TopKSelector topKSelector;
+    private char[] chars = new char[64];
+    private int[] pieces = new int[256];
+
+    InferenceBuffers(int maxRetainedLogits) {
+        this.maxRetainedLogits = maxRetainedLogits;
+    }
+
+    /**
+     * Makes the input buffers hold exactly {@code size} elements (position 0, limit size).
+     */
+    void prepareInputs(int size) {
+        if (inputIds.capacity() < size) {
+            int capacity = roundUp(size);
+            inputIds = allocateLongs(capacity);
+            attentionMask = allocateLongs(capacity);
+            // token_type_ids are always 0; a fresh direct buffer is already zeroed
+            tokenTypeIds = allocateLongs(capacity);
+        }
+        inputIds.clear().limit(size);
+        attentionMask.clear().limit(size);
+        tokenTypeIds.clear().limit(size);
+    }
+
+    /**
+     * Makes the logits buffer hold exactly {@code positions * vocabSize} floats. Over
+     * {@code maxRetainedLogits}, a buffer for this call only is returned.
+     */
+    FloatBuffer prepareLogits(int positions, int vocabSize) {
+        long size = (long) positions * vocabSize;
+        if (size * Float.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Logits buffer too large: " + positions + " positions");
+        }
+        if (size > maxRetainedLogits) {
+            return allocateFloats((int) size);
+        }
+        if (logits.capacity() < size) {
+            long capacity = Math.min((long) roundUp(positions) * vocabSize, maxRetainedLogits);
+            logits = allocateFloats((int) capacity);
+        }
+        logits.clear().limit((int) size);
+        return logits;
+    }
+
+    /**
+     * Makes the positions buffer hold exactly {@code size} elements (in-graph top-k models).
+     */
+    LongBuffer preparePositions(int size) {
+        if (positions.capacity() < size) {
+            positions = allocateLongs(roundUp(size));
+        }
+        positions.clear().limit(size);
+        return positions;
+    }
+
+    /**
+     * Makes the top-k output buffer hold exactly {@code size} elements (in-graph top-k models).
+     */
+    LongBuffer prepareTopKIndices(int size) {
+        if (topKIndices.capacity() < size) {
+            topKIndices = allocateLongs(roundUp(size));
+        }
+        topKIndices.clear().limit(size);
+        return topKIndices;
+    }
+
+    char[] chars(int size) {
+        if (chars.length < size) {
+            chars = new char[Math.max(size, chars.length * 2)];
+        }
+        return chars;
+    }
+
+    int[] pieces(int size) {
+        if (pieces.length < size) {
+            pieces = new int[Math.max(size, pieces.length * 2)];
+        }
+        return pieces;
+    }
+
+    TopKSelector topKSelector(int k) {
+        if (topKSelector == null || topKSelector.k() != k) {
+            topKSelector = new TopKSelector(k);
+        }
+        return topKSelector;
+    }
+
+    LongBuffer inputIds() {
+        return inputIds;
+    }
+
+    LongBuffer attentionMask() {
+        return attentionMask;
+    }
+
+    LongBuffer tokenTypeIds() {
+        return tokenTypeIds;
+    }
+
+    private static int roundUp(int size) {
+        return (size + POSITION_BLOCK - 1) / POSITION_BLOCK * POSITION_BLOCK;
+    }
+
+    private static LongBuffer allocateLongs(int count) {
+        return ByteBuffer.allocateDirect(count * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    private static FloatBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,225 @@
+package ai.korra;
+
+import org.elasticsearch.common.settings.Settings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Collects the documents passed through {@code heb_lemmatize} processors and lemmatizes
+ * them together with {@link OnnxLemmatizer#lemmatizeAll}.
+ *
+ * The processor is asynchronous, so the ingest service queues every document of a bulk
+ * request without waiting for the previous one. A worker takes the first queued job and
+ * keeps collecting until {@code max_docs} jobs are queued or the wait window expires,
+ * splits every field value into windows the way {@code heb_lemmas} does and runs all the
+ * windows of the batch at once. Jobs are completed on the executor passed in, so the rest
+ * of each pipeline does not run on the worker.
+ *
+ * Workers are started on the first job, so nodes that never run the processor do not
+ * keep idle threads.
+ */
+final class IngestBatcher implements AutoCloseable {
+
+    /**
+     * Hebrew words of the field values of one document.
+     */
+    static final class Job {
+        final List<List<String>> words;
+        final int windowSize;
+        final int windowOverlap;
+        final List<String[]> lemmas = new ArrayList<>();
+
+        private final BiConsumer<List<String[]>, Exception> onDone;
+
+        /**
+         * {@code onDone} receives the lemmas of every word list, or the failure.
+         */
+        Job(List<List<String>> words, int windowSize, int windowOverlap, BiConsumer<List<String[]>, Exception> onDone) {
+            this.words = words;
+            this.windowSize = windowSize;
+            this.windowOverlap = windowOverlap;
+            this.onDone = onDone;
+        }
+    }
+
+    /**
+     * Words {@code [from, to)} of one field value sent to the model; the lemmas of
+     * {@code [commitFrom, commitTo)} are kept, the rest is context.
+     */
+    private record Window(String[] lemmas, List<String> words, int from, int to, int commitFrom, int commitTo) {
+    }
+
+    private final int maxDocs;
+    private final long maxWaitNanos;
+    private final int workerCount;
+    private final Consumer<Runnable> executor;
+    private final LinkedBlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    IngestBatcher(Settings settings, Consumer<Runnable> executor) {
+        this.maxDocs = HebLemmasSettings.INGEST_BATCH_MAX_DOCS.get(settings);
+        this.maxWaitNanos = HebLemmasSettings.INGEST_BATCH_MAX_WAIT.get(settings).nanos();
+        this.workerCount = HebLemmasSettings.INGEST_BATCH_WORKERS.get(settings);
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the job; its callback is invoked on the executor once lemmatization is done.
+     */
+    void submit(Job job) {
+        if (!running) {
+            job.onDone.accept(null, new IllegalStateException("Ingest batcher is closed"));
+            return;
+        }
+        startWorkers();
+        queue.add(job);
+    }
+
+    private synchronized void startWorkers() {
+        if (!workers.isEmpty() || !running) {
+            return;
+        }
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "heb-lemmas-ingest-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    private void runWorker() {
+        List<Job> batch = new ArrayList<>(Math.min(maxDocs, 1024));
+        while (running) {
+            try {
+                Job first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxDocs) {
+                    long remaining = deadline - System.nanoTime();
+                    Job next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                runBatch(List.copyOf(batch));
+            } catch (InterruptedException e) {
+                complete(List.copyOf(batch), new IllegalStateException("Ingest batcher is closed"));
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void runBatch(List<Job> batch) {
+        try {
+            OnnxLemmatizer lemmatizer = OnnxLemmatizer.getInstance();
+            List<Window> windows = new ArrayList<>();
+            for (Job job : batch) {
+                for (List<String> words : job.words) {
+                    String[] lemmas = new String[words.size()];
+                    job.lemmas.add(lemmas);
+                    addWindows(lemmatizer, words, lemmas, job.windowSize, job.windowOverlap, windows);
+                }
+            }
+
+            List<List<String>> sequences = new ArrayList<>(windows.size());
+            for (Window window : windows) {
+                sequences.add(window.words().subList(window.from(), window.to()));
+            }
+            HebDebugger.log("Lemmatizing ingest batch: docs=" + batch.size() + " windows=" + windows.size());
+            List<List<String>> results = lemmatizer.lemmatizeAll(sequences);
+
+            for (int w = 0; w < windows.size(); w++) {
+                Window window = windows.get(w);
+                List<String> result = results.get(w);
+                for (int i = window.commitFrom(); i < window.commitTo(); i++) {
+                    window.lemmas()[i] = result.get(i - window.from());
+                }
+            }
+        } catch (Exception e) {
+            complete(batch, e);
+            return;
+        } catch (Error e) {
+            // Fail the documents before the worker dies, or their bulk requests would never complete
+            complete(batch, new IllegalStateException("Lemmatization failed", e));
+            throw e;
+        }
+        complete(batch, null);
+    }
+
+    /**
+     * Splits the words into windows of at most {@code windowSize} word pieces, each
+     * committing the words after the previous one's with up to {@code windowOverlap}
+     * pieces of context on each side. With a window size of 0 the words form a single
+     * window unless they exceed the model's input length, as in {@link HebTokenFilter}.
+     */
+    private static void addWindows(OnnxLemmatizer lemmatizer, List<String> words, String[] lemmas, int windowSize,
+                                   int windowOverlap, List<Window> windows) {
+        int count = words.size();
+        if (count == 0) {
+            return;
+        }
+        if (windowSize == 0) {
+            windowSize = OnnxLemmatizer.MAX_SEQUENCE_LENGTH;
+            windowOverlap = HebTokenFilter.DEFAULT_WINDOW_OVERLAP;
+        }
+
+        int[] pieces = new int[count];
+        for (int i = 0; i < count; i++) {
+            pieces[i] = Math.max(1, lemmatizer.countWordPieces(words.get(i)));
+        }
+        int budget = windowSize - 2;
+        int commitFrom = 0;
+        while (commitFrom < count) {
+            int from = commitFrom;
+            int used = 0;
+            while (from > 0 && used + pieces[from - 1] <= windowOverlap) {
+                used += pieces[--from];
+            }
+            int to = commitFrom;
+            while (to < count && (to == commitFrom || used + pieces[to] <= budget)) {
+                used += pieces[to++];
+            }
+            int commitTo = to;
+            if (to < count) {
+                int trailing = 0;
+                while (commitTo > commitFrom + 1 && trailing + pieces[commitTo - 1] <= windowOverlap) {
+                    trailing += pieces[--commitTo];
+                }
+            }
+            windows.add(new Window(lemmas, words, from, to, commitFrom, commitTo));
+            commitFrom = commitTo;
+        }
+    }
+
+    private void complete(List<Job> batch, Exception failure) {
+        for (Job job : batch) {
+            List<String[]> lemmas = failure == null ? job.lemmas : null;
+            executor.accept(() -> job.onDone.accept(lemmas, failure));
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (this) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+        List<Job> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        complete(pending, new IllegalStateException("Ingest batcher is closed"));
+    }
+}
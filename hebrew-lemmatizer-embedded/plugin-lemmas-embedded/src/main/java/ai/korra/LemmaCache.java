@@ -0,0 +1,130 @@
+package ai.korra;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Bounded, lock-striped LRU cache for lemmatizer results.
+ *
+ * Keys are spread over a power-of-two number of shards, each an access-ordered map
+ * guarded by its own lock and bounded by its share of the total weight.
+ */
+final class LemmaCache<K, V> {
+
+    /**
+     * Point-in-time cache counters.
+     */
+    record Stats(long hits, long misses, long evictions, long entries, long weight) {
+
+        double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Shard<K, V> {
+        final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final long maxWeight;
+        long weight;
+
+        Shard(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+
+    private final List<Shard<K, V>> shards;
+    private final int shardMask;
+    private final ToLongBiFunction<K, V> weigher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    LemmaCache(long maxWeight, int shardCount, ToLongBiFunction<K, V> weigher) {
+        int count = Integer.highestOneBit(Math.max(1, shardCount));
+        this.shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shards.add(new Shard<>(Math.max(1, maxWeight / count)));
+        }
+        this.shardMask = count - 1;
+        this.weigher = weigher;
+    }
+
+    V get(K key) {
+        Shard<K, V> shard = shardFor(key);
+        Entry<V> entry;
+        synchronized (shard) {
+            entry = shard.entries.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    void put(K key, V value) {
+        long weight = weigher.applyAsLong(key, value);
+        Shard<K, V> shard = shardFor(key);
+        if (weight > shard.maxWeight) {
+            return;
+        }
+        synchronized (shard) {
+            Entry<V> previous = shard.entries.put(key, new Entry<>(value, weight));
+            shard.weight += weight;
+            if (previous != null) {
+                shard.weight -= previous.weight;
+            }
+            Iterator<Map.Entry<K, Entry<V>>> it = shard.entries.entrySet().iterator();
+            while (shard.weight > shard.maxWeight && it.hasNext()) {
+                Entry<V> eldest = it.next().getValue();
+                it.remove();
+                shard.weight -= eldest.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    void clear() {
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                shard.entries.clear();
+                shard.weight = 0;
+            }
+        }
+    }
+
+    Stats stats() {
+        long entries = 0;
+        long weight = 0;
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                entries += shard.entries.size();
+                weight += shard.weight;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries, weight);
+    }
+
+    private Shard<K, V> shardFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards.get(h & shardMask);
+    }
+}
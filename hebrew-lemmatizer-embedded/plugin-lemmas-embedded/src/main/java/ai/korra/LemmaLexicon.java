@@ -0,0 +1,254 @@
+package ai.korra;
+
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.CharSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.FSTCompiler;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Word to lemma lexicon stored in a Lucene {@link FST}, used by {@code heb_lemmas} in
+ * {@code lexicon_first} mode to resolve common words without running the model.
+ *
+ * The lexicon is built offline by lemmatizing a corpus with the model ({@link #main}).
+ * A word is only included when it was seen often enough and the model gave it the same
+ * lemma in nearly every context, so ambiguous words are left to the model along with
+ * words that are not in the lexicon at all.
+ *
+ * File layout: a Lucene codec header, the entry count and the FST (UTF-16 code unit
+ * labels, lemma outputs).
+ */
+final class LemmaLexicon {
+
+    static final String FILE_NAME = "lexicon.fst";
+
+    private static final String CODEC = "HebLemmaLexicon";
+    private static final int VERSION = 1;
+    private static final int MAX_WORDS_PER_SEQUENCE = 64;
+    private static final CharSequenceOutputs OUTPUTS = CharSequenceOutputs.getSingleton();
+
+    private static final Map<Path, Loaded> LOADED = new ConcurrentHashMap<>();
+    private static volatile LemmaLexicon bundled;
+
+    private final FST<CharsRef> fst;
+    private final int size;
+
+    /**
+     * A lexicon read from a file, with the modification time and size the file had then.
+     */
+    private record Loaded(LemmaLexicon lexicon, FileTime lastModified, long fileSize) {
+    }
+
+    private LemmaLexicon(FST<CharsRef> fst, int size) {
+        this.fst = fst;
+        this.size = size;
+    }
+
+    /**
+     * The lexicon at {@code path}, shared by all filters using it. The file is read again
+     * when its modification time or size has changed, so replacing it and reopening the
+     * index picks up the new lexicon without a restart.
+     */
+    static LemmaLexicon load(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Loaded loaded = LOADED.get(path);
+        if (loaded != null && loaded.lastModified().equals(attributes.lastModifiedTime())
+                && loaded.fileSize() == attributes.size()) {
+            return loaded.lexicon();
+        }
+        LemmaLexicon lexicon;
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
+            lexicon = read(new InputStreamDataInput(stream), path.toString());
+        }
+        // Replaces the entry of an older version of the file, which filters still using it keep alive
+        LOADED.put(path, new Loaded(lexicon, attributes.lastModifiedTime(), attributes.size()));
+        return lexicon;
+    }
+
+    /**
+     * The lexicon shipped in the plugin jar ({@code model/lexicon.fst}), or {@code null}
+     * if the build did not include one.
+     */
+    static LemmaLexicon bundled() throws IOException {
+        if (bundled == null) {
+            synchronized (LemmaLexicon.class) {
+                if (bundled == null) {
+                    String resourcePath = "model/" + FILE_NAME;
+                    InputStream stream = LemmaLexicon.class.getModule().getResourceAsStream(resourcePath);
+                    if (stream == null) {
+                        stream = LemmaLexicon.class.getClassLoader().getResourceAsStream(resourcePath);
+                    }
+                    if (stream == null) {
+                        return null;
+                    }
+                    try (InputStream in = new BufferedInputStream(stream)) {
+                        bundled = read(new InputStreamDataInput(in), resourcePath);
+                    }
+                }
+            }
+        }
+        return bundled;
+    }
+
+    private static LemmaLexicon read(DataInput in, String source) throws IOException {
+        try {
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+        } catch (IOException e) {
+            throw new IOException("Not a lemma lexicon: " + source, e);
+        }
+        int size = in.readVInt();
+        FST<CharsRef> fst = new FST<>(FST.readMetadata(in, OUTPUTS), in);
+        HebDebugger.log("Loaded lemma lexicon with " + size + " words from " + source);
+        return new LemmaLexicon(fst, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Lemma of the first {@code length} chars of {@code buffer}, or {@code null} if the
+     * word is not in the lexicon.
+     */
+    String lookup(char[] buffer, int length) throws IOException {
+        FST.BytesReader reader = fst.getBytesReader();
+        FST.Arc<CharsRef> arc = fst.getFirstArc(new FST.Arc<>());
+        CharsRef output = OUTPUTS.getNoOutput();
+        for (int i = 0; i < length; i++) {
+            if (fst.findTargetArc(buffer[i], arc, arc, reader) == null) {
+                return null;
+            }
+            output = OUTPUTS.add(output, arc.output());
+        }
+        if (!arc.isFinal()) {
+            return null;
+        }
+        return OUTPUTS.add(output, arc.nextFinalOutput()).toString();
+    }
+
+    static LemmaLexicon build(SortedMap<String, String> lemmas) throws IOException {
+        FSTCompiler<CharsRef> compiler = new FSTCompiler.Builder<>(FST.INPUT_TYPE.BYTE2, OUTPUTS).build();
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        for (Map.Entry<String, String> entry : lemmas.entrySet()) {
+            compiler.add(Util.toUTF16(entry.getKey(), scratch), new CharsRef(entry.getValue()));
+        }
+        FST<CharsRef> fst = FST.fromFSTReader(compiler.compile(), compiler.getFSTReader());
+        return new LemmaLexicon(fst, lemmas.size());
+    }
+
+    void write(Path path) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(path)) {
+            OutputStreamDataOutput out = new OutputStreamDataOutput(stream);
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeVInt(size);
+            fst.save(out, out);
+        }
+    }
+
+    /**
+     * Builds a lexicon from a UTF-8 corpus with one sentence or paragraph per line:
+     * {@code LemmaLexicon <corpus> <output> [min_count] [min_agreement]}.
+     *
+     * Lines are split with the standard tokenizer and lemmatized by the model in sequences
+     * of up to {@value #MAX_WORDS_PER_SEQUENCE} Hebrew words. A word is kept if it occurred
+     * at least {@code min_count} times (default 3) and its most frequent lemma accounts for
+     * at least {@code min_agreement} of them (default 0.95).
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LemmaLexicon <corpus.txt> <lexicon.fst> [min_count] [min_agreement]");
+            System.exit(1);
+        }
+        Path corpus = Path.of(args[0]);
+        Path output = Path.of(args[1]);
+        int minCount = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        double minAgreement = args.length > 3 ? Double.parseDouble(args[3]) : 0.95;
+
+        OnnxLemmatizer lemmatizer = OnnxLemmatizer.getInstance();
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        long words = 0;
+        try (BufferedReader reader = Files.newBufferedReader(corpus, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> tokens = tokenize(line);
+                for (int from = 0; from < tokens.size(); from += MAX_WORDS_PER_SEQUENCE) {
+                    List<String> sequence = tokens.subList(from, Math.min(tokens.size(), from + MAX_WORDS_PER_SEQUENCE));
+                    List<String> lemmas = lemmatizer.lemmatize(sequence);
+                    for (int i = 0; i < sequence.size(); i++) {
+                        counts.computeIfAbsent(sequence.get(i), k -> new HashMap<>()).merge(lemmas.get(i), 1, Integer::sum);
+                    }
+                    words += sequence.size();
+                }
+            }
+        }
+
+        SortedMap<String, String> lexicon = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+            int total = 0;
+            int best = 0;
+            String bestLemma = null;
+            for (Map.Entry<String, Integer> lemma : entry.getValue().entrySet()) {
+                total += lemma.getValue();
+                if (lemma.getValue() > best) {
+                    best = lemma.getValue();
+                    bestLemma = lemma.getKey();
+                }
+            }
+            if (total >= minCount && best >= minAgreement * total) {
+                lexicon.put(entry.getKey(), bestLemma);
+            }
+        }
+
+        LemmaLexicon built = build(lexicon);
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        built.write(output);
+        System.out.println("Lemmatized " + words + " words, " + counts.size() + " distinct; wrote "
+                + lexicon.size() + " entries (" + built.fst.numBytes() + " bytes) to " + output);
+        lemmatizer.close();
+    }
+
+    /**
+     * Hebrew words of a line, split the way the default {@code standard} tokenizer does.
+     */
+    private static List<String> tokenize(String line) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (StandardTokenizer tokenizer = new StandardTokenizer()) {
+            CharTermAttribute term = tokenizer.addAttribute(CharTermAttribute.class);
+            tokenizer.setReader(new StringReader(line));
+            tokenizer.reset();
+            while (tokenizer.incrementToken()) {
+                if (TokenClassifier.HEBREW.shouldLemmatize(term.buffer(), term.length())) {
+                    tokens.add(term.toString());
+                }
+            }
+            tokenizer.end();
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,334 @@
+package ai.korra;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.xcontent.ToXContentFragment;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide lemmatizer counters and distributions, reported by {@code GET _nodes/heb_lemmas/stats}.
+ *
+ * Analysis calls slower than {@link HebLemmasSettings#SLOWLOG_THRESHOLD} are logged to
+ * the {@code ai.korra.heb_lemmas.slowlog} logger.
+ */
+final class LemmatizerStats {
+
+    private static final Logger SLOW_LOG = LogManager.getLogger("ai.korra.heb_lemmas.slowlog");
+
+    private final LongAdder analysisCalls = new LongAdder();
+    private final LongAdder words = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+    private final LongAdder inferenceCalls = new LongAdder();
+    private final LongAdder sequences = new LongAdder();
+    private final LongAdder lexiconHits = new LongAdder();
+    private final LongAdder lexiconMisses = new LongAdder();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder passthrough = new LongAdder();
+    private final LongAdder prefixStripped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Histogram analysisMicros = new Histogram();
+    private final Histogram inferenceMicros = new Histogram();
+    private final Histogram batchSizes = new Histogram();
+    private final Histogram sequenceLengths = new Histogram();
+
+    private volatile long slowThresholdNanos = -1;
+    private volatile ModelState modelState = ModelState.NOT_LOADED;
+    private volatile long modelLoadNanos = -1;
+    private volatile long warmupNanos = -1;
+
+    /**
+     * Readiness of the shared model on this node.
+     */
+    enum ModelState {
+        NOT_LOADED,
+        LOADING,
+        WARMING,
+        READY,
+        FAILED;
+
+        String displayName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    void setSlowThreshold(TimeValue threshold) {
+        slowThresholdNanos = threshold.nanos() < 0 ? -1 : threshold.nanos();
+    }
+
+    void onLoadStarted() {
+        modelState = ModelState.LOADING;
+    }
+
+    void onModelLoaded(long nanos) {
+        modelLoadNanos = nanos;
+        modelState = ModelState.READY;
+    }
+
+    void onWarmupStarted() {
+        modelState = ModelState.WARMING;
+    }
+
+    void onWarmedUp(long nanos) {
+        warmupNanos = nanos;
+        modelState = ModelState.READY;
+    }
+
+    void onLoadFailed() {
+        modelState = ModelState.FAILED;
+    }
+
+    ModelState modelState() {
+        return modelState;
+    }
+
+    /**
+     * One {@code lemmatize} call from analysis, including cache lookups and batching waits.
+     */
+    void onAnalysis(int wordCount, long nanos) {
+        analysisCalls.increment();
+        words.add(wordCount);
+        analysisMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        long threshold = slowThresholdNanos;
+        if (threshold >= 0 && nanos >= threshold) {
+            slowCalls.increment();
+            SLOW_LOG.warn("took[{}], took_millis[{}], words[{}]",
+                    TimeValue.timeValueNanos(nanos), TimeUnit.NANOSECONDS.toMillis(nanos), wordCount);
+        }
+    }
+
+    /**
+     * One session run over {@code batchSize} sequences.
+     */
+    void onInference(int batchSize, long nanos) {
+        inferenceCalls.increment();
+        sequences.add(batchSize);
+        batchSizes.record(batchSize);
+        inferenceMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void onSequence(int length) {
+        sequenceLengths.record(length);
+    }
+
+    void onLexiconLookup(boolean hit) {
+        (hit ? lexiconHits : lexiconMisses).increment();
+    }
+
+    /**
+     * A call was let through to inference.
+     */
+    void onAdmitted() {
+        admitted.increment();
+    }
+
+    /**
+     * An admitted call had to wait for a slot first.
+     */
+    void onQueued() {
+        queued.increment();
+    }
+
+    /**
+     * A call was not admitted within the queue timeout and {@code policy} was applied.
+     */
+    void onOverload(HebLemmasSettings.OverloadPolicy policy) {
+        switch (policy) {
+            case PASSTHROUGH -> passthrough.increment();
+            case PREFIX_STRIP -> prefixStripped.increment();
+            case REJECT -> rejected.increment();
+        }
+    }
+
+    /**
+     * The filter emitted the original tokens because lemmatization failed.
+     */
+    void onFallback() {
+        fallbacks.increment();
+    }
+
+    Snapshot snapshot(int inFlight, LemmaCache.Stats sequenceCache, LemmaCache.Stats tokenCache) {
+        return new Snapshot(
+                modelState,
+                Math.max(0, TimeUnit.NANOSECONDS.toMillis(modelLoadNanos)),
+                Math.max(0, TimeUnit.NANOSECONDS.toMillis(warmupNanos)),
+                analysisCalls.sum(),
+                words.sum(),
+                fallbacks.sum(),
+                slowCalls.sum(),
+                analysisMicros.summary(),
+                inferenceCalls.sum(),
+                sequences.sum(),
+                inferenceMicros.summary(),
+                batchSizes.summary(),
+                sequenceLengths.summary(),
+                lexiconHits.sum(),
+                lexiconMisses.sum(),
+                inFlight,
+                admitted.sum(),
+                queued.sum(),
+                passthrough.sum(),
+                prefixStripped.sum(),
+                rejected.sum(),
+                sequenceCache,
+                tokenCache);
+    }
+
+    /**
+     * Serializable point-in-time copy of the stats of one node.
+     */
+    record Snapshot(
+            ModelState modelState,
+            long modelLoadMillis,
+            long warmupMillis,
+            long analysisCalls,
+            long words,
+            long fallbacks,
+            long slowCalls,
+            Histogram.Summary analysisTime,
+            long inferenceCalls,
+            long sequences,
+            Histogram.Summary inferenceTime,
+            Histogram.Summary batchSize,
+            Histogram.Summary sequenceLength,
+            long lexiconHits,
+            long lexiconMisses,
+            long inFlight,
+            long admitted,
+            long queued,
+            long passthrough,
+            long prefixStripped,
+            long rejected,
+            LemmaCache.Stats sequenceCache,
+            LemmaCache.Stats tokenCache
+    ) implements Writeable, ToXContentFragment {
+
+        Snapshot(StreamInput in) throws IOException {
+            this(in.readEnum(ModelState.class), in.readVLong(), in.readVLong(),
+                    in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(),
+                    new Histogram.Summary(in), in.readVLong(), in.readVLong(),
+                    new Histogram.Summary(in), new Histogram.Summary(in), new Histogram.Summary(in),
+                    in.readVLong(), in.readVLong(),
+                    in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(),
+                    readCacheStats(in), readCacheStats(in));
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeEnum(modelState);
+            out.writeVLong(modelLoadMillis);
+            out.writeVLong(warmupMillis);
+            out.writeVLong(analysisCalls);
+            out.writeVLong(words);
+            out.writeVLong(fallbacks);
+            out.writeVLong(slowCalls);
+            analysisTime.writeTo(out);
+            out.writeVLong(inferenceCalls);
+            out.writeVLong(sequences);
+            inferenceTime.writeTo(out);
+            batchSize.writeTo(out);
+            sequenceLength.writeTo(out);
+            out.writeVLong(lexiconHits);
+            out.writeVLong(lexiconMisses);
+            out.writeVLong(inFlight);
+            out.writeVLong(admitted);
+            out.writeVLong(queued);
+            out.writeVLong(passthrough);
+            out.writeVLong(prefixStripped);
+            out.writeVLong(rejected);
+            writeCacheStats(out, sequenceCache);
+            writeCacheStats(out, tokenCache);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject("model");
+            builder.field("state", modelState.displayName());
+            builder.field("loaded", modelState == ModelState.WARMING || modelState == ModelState.READY);
+            builder.field("load_time_in_millis", modelLoadMillis);
+            builder.field("warmup_time_in_millis", warmupMillis);
+            builder.endObject();
+
+            builder.startObject("analysis");
+            builder.field("calls", analysisCalls);
+            builder.field("words", words);
+            builder.field("fallbacks", fallbacks);
+            builder.field("slow_calls", slowCalls);
+            analysisTime.toXContent(builder, "time", "_in_micros");
+            builder.endObject();
+
+            builder.startObject("inference");
+            builder.field("calls", inferenceCalls);
+            builder.field("sequences", sequences);
+            inferenceTime.toXContent(builder, "time", "_in_micros");
+            batchSize.toXContent(builder, "batch_size", "");
+            sequenceLength.toXContent(builder, "sequence_length", "");
+            builder.endObject();
+
+            builder.startObject("lexicon");
+            builder.field("hits", lexiconHits);
+            builder.field("misses", lexiconMisses);
+            builder.endObject();
+
+            builder.startObject("admission");
+            builder.field("in_flight", inFlight);
+            builder.field("admitted", admitted);
+            builder.field("queued", queued);
+            builder.startObject("overloaded");
+            builder.field("passthrough", passthrough);
+            builder.field("prefix_strip", prefixStripped);
+            builder.field("rejected", rejected);
+            builder.endObject();
+            builder.endObject();
+
+            builder.startObject("cache");
+            cacheToXContent(builder, "sequence", sequenceCache);
+            cacheToXContent(builder, "single_token", tokenCache);
+            builder.endObject();
+            return builder;
+        }
+
+        private static void cacheToXContent(XContentBuilder builder, String name, LemmaCache.Stats stats)
+                throws IOException {
+            builder.startObject(name);
+            builder.field("enabled", stats != null);
+            if (stats != null) {
+                builder.field("hits", stats.hits());
+                builder.field("misses", stats.misses());
+                builder.field("hit_rate", Math.round(stats.hitRate() * 10000) / 10000.0);
+                builder.field("evictions", stats.evictions());
+                builder.field("entries", stats.entries());
+                builder.field("size_in_bytes", stats.weight());
+            }
+            builder.endObject();
+        }
+
+        private static LemmaCache.Stats readCacheStats(StreamInput in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            return new LemmaCache.Stats(in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong());
+        }
+
+        private static void writeCacheStats(StreamOutput out, LemmaCache.Stats stats) throws IOException {
+            out.writeBoolean(stats != null);
+            if (stats != null) {
+                out.writeVLong(stats.hits());
+                out.writeVLong(stats.misses());
+                out.writeVLong(stats.evictions());
+                out.writeVLong(stats.entries());
+                out.writeVLong(stats.weight());
+            }
+        }
+    }
+}
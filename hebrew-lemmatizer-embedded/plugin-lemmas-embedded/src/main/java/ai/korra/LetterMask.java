@@ -0,0 +1,107 @@
+package ai.korra;
+
+/**
+ * Significant-letter sets packed into an {@code int}, used to check whether a predicted
+ * lemma shares enough letters with the original word.
+ *
+ * Bit {@code c - 'א'} is set for every Hebrew letter {@code c} that is not a weak letter
+ * (א ה ו י, which come and go under inflection). Words with other significant chars
+ * carry {@link #OTHER} and are compared char by char instead.
+ */
+final class LetterMask {
+
+    /** The word has a significant char outside the Hebrew letter block. */
+    static final int OTHER = 1 << 30;
+    /** Vocabulary entry that can never be a lemma: {@code [special]} tokens and {@code ##} pieces. */
+    static final int SPECIAL = 1 << 31;
+
+    private static final char FIRST = 'א';
+    private static final char LAST = 'ת';
+    private static final int LETTERS = (1 << (LAST - FIRST + 1)) - 1;
+
+    private LetterMask() {
+    }
+
+    static boolean isWeak(char c) {
+        return c == 'א' || c == 'ה' || c == 'ו' || c == 'י';
+    }
+
+    static int of(CharSequence word) {
+        int mask = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (isWeak(c)) {
+                continue;
+            }
+            mask |= c >= FIRST && c <= LAST ? 1 << (c - FIRST) : OTHER;
+        }
+        return mask;
+    }
+
+    /**
+     * Mask of a vocabulary entry, flagged {@link #SPECIAL} if it is not a lemma candidate.
+     */
+    static int ofCandidate(String token) {
+        int mask = of(token);
+        return token.startsWith("[") || token.startsWith("##") ? mask | SPECIAL : mask;
+    }
+
+    /**
+     * Letters of {@link #of} that occur more than once in {@code word}.
+     */
+    static int repeated(CharSequence word) {
+        int seen = 0;
+        int repeated = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!isWeak(c) && c >= FIRST && c <= LAST) {
+                int bit = 1 << (c - FIRST);
+                repeated |= seen & bit;
+                seen |= bit;
+            }
+        }
+        return repeated;
+    }
+
+    /**
+     * Whether a candidate shares enough significant letters with the original: the number
+     * of candidate letters (counting repeats) found in the original must reach the smaller
+     * of 2 and both words' distinct significant letter counts.
+     */
+    static boolean overlaps(int originalMask, int candidateMask, int candidateRepeated) {
+        int minRequired = Math.min(2, Math.min(Integer.bitCount(originalMask & LETTERS),
+                Integer.bitCount(candidateMask & LETTERS)));
+        int shared = originalMask & candidateMask & LETTERS;
+        return switch (minRequired) {
+            case 0 -> true;
+            case 1 -> shared != 0;
+            default -> Integer.bitCount(shared) >= 2 || (shared & candidateRepeated) != 0;
+        };
+    }
+
+    /**
+     * Same rule as {@link #overlaps} for words with significant chars outside the mask.
+     */
+    static boolean overlaps(String original, String candidate) {
+        int overlap = 0;
+        for (int i = 0; i < candidate.length(); i++) {
+            char c = candidate.charAt(i);
+            if (!isWeak(c) && original.indexOf(c) >= 0) {
+                overlap++;
+            }
+        }
+        int minRequired = Math.min(2, Math.min(distinctSignificant(original), distinctSignificant(candidate)));
+        return overlap >= minRequired;
+    }
+
+    private static int distinctSignificant(String word) {
+        int count = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!isWeak(c) && word.indexOf(c) == i) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
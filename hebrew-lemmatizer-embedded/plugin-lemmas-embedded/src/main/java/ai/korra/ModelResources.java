@@ -0,0 +1,318 @@
+package ai.korra;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import org.elasticsearch.core.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * The model files bundled in the plugin jar, either extracted into a versioned cache
+ * directory or read straight into memory.
+ *
+ * Besides the default {@value #MODEL_FILE}, the jar can bundle precision variants exported
+ * as {@code model-<variant>.onnx} (see {@link HebLemmasSettings#MODEL_VARIANT}); they share
+ * the vocabulary.
+ *
+ * The cache lives in {@code <es.path.data>/heb-lemmatizer/<digest>}, where the digest is
+ * the SHA-256 of the selected model and the vocabulary files ({@code <model>.sha256},
+ * written by the build, or computed from the resources), so an upgraded plugin or another
+ * variant never reuses a stale model. Each file is
+ * copied to a temp file and renamed into place, so a copy interrupted by a crash is
+ * never picked up. Directories of other versions are removed once extraction succeeds.
+ */
+final class ModelResources {
+
+    static final String MODEL_FILE = "model.onnx";
+    static final String TOKENIZER_FILE = "tokenizer.json";
+    static final String DEFAULT_VARIANT = "default";
+
+    /** Vocabulary files covered by the digest after the model, in digest order. */
+    private static final List<String> VOCABULARY_FILES = List.of(Vocabulary.FILE_NAME, TOKENIZER_FILE);
+    private static final int DIRECTORY_NAME_LENGTH = 16;
+    private static final String OPTIMIZED_SUFFIX = ".optimized.onnx";
+
+    private final String digest;
+    private final Path directory;
+    private final String modelFile;
+    private final byte[] model;
+    private final Vocabulary vocabulary;
+
+    private ModelResources(String digest, Path directory, String modelFile, byte[] model, Vocabulary vocabulary) {
+        this.digest = digest;
+        this.directory = directory;
+        this.modelFile = modelFile;
+        this.model = model;
+        this.vocabulary = vocabulary;
+    }
+
+    /**
+     * Model file of a variant: {@value #MODEL_FILE} for {@value #DEFAULT_VARIANT}, otherwise
+     * {@code model-<variant>.onnx}.
+     */
+    static String modelFile(String variant) {
+        return DEFAULT_VARIANT.equals(variant) ? MODEL_FILE : "model-" + variant + ".onnx";
+    }
+
+    /**
+     * Extracts the variant's model and the vocabulary into the cache directory for their
+     * digest, unless a previous start already did.
+     */
+    static ModelResources extract(String variant) throws IOException {
+        String modelFile = modelFile(variant);
+        requireBundled(variant, modelFile);
+        String digest = bundledDigest(modelFile);
+        Path root = cacheRoot();
+        Path directory = root.resolve(digest.substring(0, DIRECTORY_NAME_LENGTH));
+        Files.createDirectories(directory);
+
+        extractResource(directory, modelFile, true);
+        Vocabulary vocabulary;
+        // The compiled vocabulary replaces tokenizer.json when the build produced one
+        if (extractResource(directory, Vocabulary.FILE_NAME, false)) {
+            vocabulary = Vocabulary.map(directory.resolve(Vocabulary.FILE_NAME));
+        } else {
+            extractResource(directory, TOKENIZER_FILE, true);
+            HebDebugger.log("No compiled vocabulary, parsing tokenizer.json");
+            try (InputStream stream = Files.newInputStream(directory.resolve(TOKENIZER_FILE))) {
+                vocabulary = Vocabulary.fromTokenizerJson(stream);
+            }
+        }
+
+        removeOtherVersions(root, directory);
+        return new ModelResources(digest, directory, modelFile, null, vocabulary);
+    }
+
+    /**
+     * Reads the variant's model and the vocabulary into memory without writing anything
+     * to disk. Sessions are created from the model bytes, which can be collected once the
+     * sessions exist.
+     */
+    static ModelResources inMemory(String variant) throws IOException {
+        String modelFile = modelFile(variant);
+        requireBundled(variant, modelFile);
+        byte[] model = readResource(modelFile, true);
+        byte[] compiled = readResource(Vocabulary.FILE_NAME, false);
+        Vocabulary vocabulary;
+        if (compiled != null) {
+            vocabulary = Vocabulary.read(ByteBuffer.wrap(compiled), "model/" + Vocabulary.FILE_NAME);
+        } else {
+            HebDebugger.log("No compiled vocabulary, parsing tokenizer.json");
+            try (InputStream stream = openResource(TOKENIZER_FILE, true)) {
+                vocabulary = Vocabulary.fromTokenizerJson(stream);
+            }
+        }
+        return new ModelResources(bundledDigest(modelFile), null, modelFile, model, vocabulary);
+    }
+
+    private static void requireBundled(String variant, String modelFile) throws IOException {
+        try (InputStream stream = openResource(modelFile, false)) {
+            if (stream == null) {
+                throw new IOException("Model variant [" + variant + "] is not bundled with this plugin build (model/"
+                        + modelFile + "), re-export the model with --variants " + variant);
+            }
+        }
+    }
+
+    String digest() {
+        return digest;
+    }
+
+    String modelFile() {
+        return modelFile;
+    }
+
+    /**
+     * The extracted model directory, or {@code null} for in-memory resources.
+     */
+    Path directory() {
+        return directory;
+    }
+
+    Vocabulary vocabulary() {
+        return vocabulary;
+    }
+
+    /**
+     * Creates sessions over the bundled model, or over its cached optimized graph when
+     * {@code optimizedGraph} is set and the model was extracted to disk.
+     */
+    SessionPool.SessionFactory sessions(OrtEnvironment env, OrtSession.SessionOptions options, boolean optimizedGraph) {
+        if (model != null) {
+            return () -> env.createSession(model, options);
+        }
+        Path modelPath = directory.resolve(modelFile);
+        if (optimizedGraph) {
+            try {
+                modelPath = optimizedModel(env);
+            } catch (OrtException | IOException e) {
+                HebDebugger.log("Optimized graph cache unavailable, using the original model: " + e.getMessage());
+            }
+        }
+        String path = modelPath.toString();
+        return () -> env.createSession(path, options);
+    }
+
+    /**
+     * The model with ONNX Runtime's hardware-independent (extended) graph optimizations
+     * applied, serialized next to the model on first use. The file name carries the ORT
+     * version, and the directory the model digest, so either changing invalidates it.
+     * Layout optimizations are hardware-specific and still run when sessions are created.
+     */
+    private Path optimizedModel(OrtEnvironment env) throws OrtException, IOException {
+        Path target = directory.resolve("model.ort-" + env.getVersion() + OPTIMIZED_SUFFIX);
+        if (Files.exists(target)) {
+            HebDebugger.log("Using cached optimized graph " + target);
+            return target;
+        }
+
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.EXTENDED_OPT);
+            options.setOptimizedModelFilePath(temp.toString());
+            options.addConfigEntry("session.save_model_format", "ONNX");
+            env.createSession(directory.resolve(modelFile).toString(), options).close();
+            moveAtomically(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        HebDebugger.log("Wrote optimized graph " + target);
+
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*" + OPTIMIZED_SUFFIX)) {
+            for (Path file : stale) {
+                if (!file.equals(target)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        return target;
+    }
+
+    private static Path cacheRoot() {
+        String dataPath = System.getProperty("es.path.data");
+        if (dataPath == null) {
+            dataPath = System.getProperty("java.io.tmpdir");
+        }
+        return Path.of(dataPath, "heb-lemmatizer");
+    }
+
+    /**
+     * Hex SHA-256 of the model file followed by {@link #VOCABULARY_FILES}: precomputed by
+     * the build as {@code <model>.sha256}, or computed from the jar.
+     */
+    private static String bundledDigest(String modelFile) throws IOException {
+        byte[] precomputed = readResource(modelFile.replace(".onnx", ".sha256"), false);
+        if (precomputed != null) {
+            return new String(precomputed, StandardCharsets.US_ASCII).trim();
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        List<String> digested = new ArrayList<>();
+        digested.add(modelFile);
+        digested.addAll(VOCABULARY_FILES);
+        for (String name : digested) {
+            try (InputStream stream = openResource(name, false)) {
+                if (stream == null) {
+                    continue;
+                }
+                int read;
+                while ((read = stream.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static boolean extractResource(Path directory, String name, boolean required) throws IOException {
+        Path target = directory.resolve(name);
+        if (Files.exists(target)) {
+            return true;
+        }
+        try (InputStream stream = openResource(name, required)) {
+            if (stream == null) {
+                return false;
+            }
+            Path temp = Files.createTempFile(directory, name, ".tmp");
+            try {
+                Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+                moveAtomically(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return true;
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Best-effort removal of other versions' directories, leftover temp files and the
+     * unversioned files written by earlier releases.
+     */
+    private static void removeOtherVersions(Path root, Path current) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                boolean versionDirectory = Files.isDirectory(entry) && name.length() == DIRECTORY_NAME_LENGTH
+                        && name.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+                boolean legacyFile = name.equals(MODEL_FILE) || VOCABULARY_FILES.contains(name);
+                if ((versionDirectory && !entry.equals(current)) || legacyFile) {
+                    IOUtils.rm(entry);
+                }
+            }
+            try (DirectoryStream<Path> temps = Files.newDirectoryStream(current, "*.tmp")) {
+                for (Path temp : temps) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        } catch (IOException e) {
+            HebDebugger.log("Could not clean up old model files: " + e.getMessage());
+        }
+    }
+
+    private static byte[] readResource(String name, boolean required) throws IOException {
+        try (InputStream stream = openResource(name, required)) {
+            return stream == null ? null : stream.readAllBytes();
+        }
+    }
+
+    private static InputStream openResource(String name, boolean required) throws IOException {
+        String resourcePath = "model/" + name;
+        InputStream stream = ModelResources.class.getModule().getResourceAsStream(resourcePath);
+        if (stream == null) {
+            stream = ModelResources.class.getClassLoader().getResourceAsStream(resourcePath);
+        }
+        if (stream == null && required) {
+            throw new IOException("Resource not found in JAR: " + resourcePath);
+        }
+        return stream;
+    }
+}
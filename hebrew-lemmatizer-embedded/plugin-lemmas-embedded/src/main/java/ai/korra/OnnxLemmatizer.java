@@ -1,23 +1,28 @@
 package ai.korra;
 
+import ai.onnxruntime.NodeInfo;
 import ai.onnxruntime.OnnxTensor;
-import ai.onnxruntime.OnnxValue;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtLoggingLevel;
 import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Hebrew lemmatizer using ONNX Runtime for inference.
@@ -26,216 +31,753 @@ public class OnnxLemmatizer implements AutoCloseable {
 
     private static volatile OnnxLemmatizer instance;
     private static final Object LOCK = new Object();
+    private static volatile Settings nodeSettings = Settings.EMPTY;
+    private static final LemmatizerStats STATS = new LemmatizerStats();
+    private static volatile AdmissionControl admission = new AdmissionControl(Settings.EMPTY, STATS);
 
     private final OrtEnvironment env;
-    private final OrtSession session;
+    private final SessionPool sessions;
     private final WordPieceTokenizer tokenizer;
-    private final String[] vocab;
+    private final Vocabulary vocab;
+    private final int[] letterMasks;
+    private final int[] repeatedLetters;
+
+    private final String logitsOutputName;
+    private final int vocabSize;
+    private final int modelTopK;
+    // Heap scratch for encoding on the calling thread; the direct buffers are leased from inferenceBuffers
+    private final ThreadLocal<InferenceBuffers> threadBuffers = ThreadLocal.withInitial(() -> new InferenceBuffers(0));
+    private final BlockingQueue<InferenceBuffers> inferenceBuffers;
+
+    private final InferenceBatcher batcher;
+    private final int maxBatchSize;
+    private final int maxBatchTokens;
+    private final LemmaCache<SequenceKey, int[][]> sequenceCache;
+    private final LemmaCache<String, String> tokenCache;
 
     private final int clsTokenId;
     private final int sepTokenId;
+    private final int padTokenId;
+    private final int unkTokenId;
+
+    /**
+     * Placeholder word that occupies a single {@code [UNK]} piece in the model input and
+     * is returned unchanged, used to keep the position of a bypassed token as context.
+     */
+    public static final String CONTEXT_MARKER = "[UNK]";
+
+    /**
+     * Longest input the model accepts, in word pieces including {@code [CLS]} and {@code [SEP]}.
+     */
+    public static final int MAX_SEQUENCE_LENGTH = 512;
+
+    private static final int TOP_K = 3;
+    private static final String POSITIONS_INPUT = "positions";
+    private static final String TOPK_INDICES_OUTPUT = "topk_indices";
+    private static final String WARMUP_TEXT = "הילדים הלכו בבוקר לבית הספר שליד הגן הציבורי החדש";
+
+    private OnnxLemmatizer(ModelResources resources, Settings settings) throws OrtException, IOException {
+        HebDebugger.log("Initializing OnnxLemmatizer with " + resources.modelFile() + " from: "
+                + (resources.directory() != null ? resources.directory() : "memory"));
+
+        boolean globalThreadPool = HebLemmasSettings.SESSION_GLOBAL_THREAD_POOL.get(settings);
+        this.env = globalThreadPool ? environmentWithGlobalThreadPool(settings) : OrtEnvironment.getEnvironment();
+
+        try (OrtSession.SessionOptions opts = sessionOptions(settings, globalThreadPool)) {
+            boolean optimizedGraph = HebLemmasSettings.SESSION_OPTIMIZED_GRAPH_CACHE.get(settings);
+            this.sessions = new SessionPool(resources.sessions(env, opts, optimizedGraph),
+                    HebLemmasSettings.SESSION_POOL_SIZE.get(settings));
+        }
+        OrtSession session = sessions.metadata();
+
+        this.tokenizer = new WordPieceTokenizer(resources.vocabulary());
+        this.vocab = tokenizer.getVocabulary();
+
+        this.letterMasks = new int[vocab.size()];
+        this.repeatedLetters = new int[vocab.size()];
+        for (int i = 0; i < vocab.size(); i++) {
+            String token = vocab.token(i);
+            letterMasks[i] = LetterMask.ofCandidate(token);
+            repeatedLetters[i] = LetterMask.repeated(token);
+        }
+
+        this.clsTokenId = tokenizer.getTokenId("[CLS]");
+        this.sepTokenId = tokenizer.getTokenId("[SEP]");
+        this.padTokenId = tokenizer.getTokenId("[PAD]");
+        this.unkTokenId = tokenizer.getTokenId("[UNK]");
+
+        this.logitsOutputName = session.getOutputNames().iterator().next();
+        if (session.getInputNames().contains(POSITIONS_INPUT) && session.getOutputNames().contains(TOPK_INDICES_OUTPUT)) {
+            NodeInfo topKInfo = session.getOutputInfo().get(TOPK_INDICES_OUTPUT);
+            long[] topKShape = ((TensorInfo) topKInfo.getInfo()).getShape();
+            if (topKShape.length != 3 || topKShape[2] <= 0) {
+                throw new OrtException("Unexpected top-k output format: " + topKInfo);
+            }
+            this.modelTopK = (int) topKShape[2];
+            this.vocabSize = vocab.size();
+            HebDebugger.log("Using in-graph top-k model variant, k=" + modelTopK);
+        } else {
+            NodeInfo logitsInfo = session.getOutputInfo().get(logitsOutputName);
+            long[] logitsShape = ((TensorInfo) logitsInfo.getInfo()).getShape();
+            if (logitsShape.length != 3) {
+                throw new OrtException("Unexpected output tensor format: " + logitsInfo);
+            }
+            this.modelTopK = 0;
+            this.vocabSize = logitsShape[2] > 0 ? (int) logitsShape[2] : vocab.size();
+        }
 
-    private static final Set<Character> WEAK_LETTERS = Set.of('א', 'ה', 'ו', 'י');
+        this.maxBatchSize = HebLemmasSettings.BATCH_MAX_SIZE.get(settings);
+        this.maxBatchTokens = HebLemmasSettings.BATCH_MAX_TOKENS.get(settings);
 
-    private OnnxLemmatizer(Path modelDir) throws OrtException, IOException {
-        HebDebugger.log("Initializing OnnxLemmatizer from: " + modelDir);
+        // One set of direct buffers per session, since a call holds both for the whole run
+        int maxRetainedLogits = (int) Math.min(
+                HebLemmasSettings.SESSION_LOGITS_BUFFER_MAX_SIZE.get(settings).getBytes() / Float.BYTES,
+                Integer.MAX_VALUE / Float.BYTES);
+        this.inferenceBuffers = new ArrayBlockingQueue<>(sessions.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            inferenceBuffers.add(new InferenceBuffers(modelTopK > 0 ? 0 : maxRetainedLogits));
+        }
+        if (maxBatchSize > 1) {
+            this.batcher = new InferenceBatcher(
+                    this::runInference,
+                    maxBatchSize,
+                    HebLemmasSettings.BATCH_MAX_WAIT.get(settings).nanos(),
+                    maxBatchTokens,
+                    HebLemmasSettings.BATCH_WORKERS.get(settings),
+                    HebLemmasSettings.BATCH_TIMEOUT.get(settings).nanos());
+        } else {
+            this.batcher = null;
+        }
 
-        this.env = OrtEnvironment.getEnvironment();
+        long cacheBytes = HebLemmasSettings.CACHE_MAX_SIZE.get(settings).getBytes();
+        int cacheShards = HebLemmasSettings.CACHE_SHARDS.get(settings);
+        this.sequenceCache = cacheBytes > 0
+                ? new LemmaCache<>(cacheBytes, cacheShards, OnnxLemmatizer::sequenceEntryBytes)
+                : null;
 
+        long tokenCacheBytes = HebLemmasSettings.CACHE_SINGLE_TOKEN_MAX_SIZE.get(settings).getBytes();
+        this.tokenCache = HebLemmasSettings.CACHE_SINGLE_TOKEN.get(settings) && tokenCacheBytes > 0
+                ? new LemmaCache<>(tokenCacheBytes, cacheShards, OnnxLemmatizer::tokenEntryBytes)
+                : null;
+    }
+
+    private static OrtSession.SessionOptions sessionOptions(Settings settings, boolean globalThreadPool)
+            throws OrtException {
         OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
         opts.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
-        opts.setInterOpNumThreads(1);
-        opts.setIntraOpNumThreads(2);
+        opts.setExecutionMode(HebLemmasSettings.SESSION_EXECUTION_MODE.get(settings));
+        opts.setCPUArenaAllocator(HebLemmasSettings.SESSION_CPU_ARENA.get(settings));
+        opts.setMemoryPatternOptimization(HebLemmasSettings.SESSION_MEMORY_PATTERN.get(settings));
+        if (globalThreadPool) {
+            opts.disablePerSessionThreads();
+        } else {
+            opts.setInterOpNumThreads(HebLemmasSettings.SESSION_INTER_OP_THREADS.get(settings));
+            opts.setIntraOpNumThreads(HebLemmasSettings.SESSION_INTRA_OP_THREADS.get(settings));
+        }
+        return opts;
+    }
 
-        Path modelPath = modelDir.resolve("model.onnx");
-        this.session = env.createSession(modelPath.toString(), opts);
+    private static OrtEnvironment environmentWithGlobalThreadPool(Settings settings) throws OrtException {
+        try (OrtEnvironment.ThreadingOptions threading = new OrtEnvironment.ThreadingOptions()) {
+            threading.setGlobalInterOpNumThreads(HebLemmasSettings.SESSION_INTER_OP_THREADS.get(settings));
+            threading.setGlobalIntraOpNumThreads(HebLemmasSettings.SESSION_INTRA_OP_THREADS.get(settings));
+            return OrtEnvironment.getEnvironment(OrtLoggingLevel.ORT_LOGGING_LEVEL_WARNING,
+                    OrtEnvironment.DEFAULT_NAME, threading);
+        } catch (IllegalStateException e) {
+            // The process-wide environment already exists with its own threading options
+            HebDebugger.log("Global ORT thread pool unavailable: " + e.getMessage());
+            return OrtEnvironment.getEnvironment();
+        }
+    }
 
-        Path tokenizerPath = modelDir.resolve("tokenizer.json");
-        this.tokenizer = new WordPieceTokenizer(tokenizerPath.toString());
-        this.vocab = tokenizer.getVocab();
+    /**
+     * Sets the node settings used when the shared instance is created.
+     */
+    public static void configure(Settings settings) {
+        nodeSettings = settings;
+        STATS.setSlowThreshold(HebLemmasSettings.SLOWLOG_THRESHOLD.get(settings));
+        admission = new AdmissionControl(settings, STATS);
+    }
 
-        this.clsTokenId = tokenizer.getTokenId("[CLS]");
-        this.sepTokenId = tokenizer.getTokenId("[SEP]");
+    static LemmatizerStats stats() {
+        return STATS;
+    }
+
+    static AdmissionControl admission() {
+        return admission;
+    }
+
+    /**
+     * Current node stats; does not load the model.
+     */
+    static LemmatizerStats.Snapshot statsSnapshot() {
+        OnnxLemmatizer current = instance;
+        return current == null
+                ? STATS.snapshot(admission.inFlight(), null, null)
+                : STATS.snapshot(admission.inFlight(), current.sequenceCacheStats(), current.tokenCacheStats());
     }
 
     public static OnnxLemmatizer getInstance() throws OrtException, IOException {
         if (instance == null) {
             synchronized (LOCK) {
                 if (instance == null) {
-                    Path modelDir = extractModelResources();
-                    instance = new OnnxLemmatizer(modelDir);
+                    STATS.onLoadStarted();
+                    long start = System.nanoTime();
+                    try {
+                        String variant = HebLemmasSettings.MODEL_VARIANT.get(nodeSettings);
+                        ModelResources resources = HebLemmasSettings.MODEL_IN_MEMORY.get(nodeSettings)
+                                ? ModelResources.inMemory(variant)
+                                : ModelResources.extract(variant);
+                        instance = new OnnxLemmatizer(resources, nodeSettings);
+                    } catch (Exception e) {
+                        STATS.onLoadFailed();
+                        throw e;
+                    }
+                    STATS.onModelLoaded(System.nanoTime() - start);
                 }
             }
         }
         return instance;
     }
 
+    /**
+     * Loads the shared instance ahead of the first analysis request and runs the configured
+     * warm-up, so the node reports {@code ready} once inference is at steady-state latency.
+     */
+    static void preload() throws OrtException, IOException {
+        OnnxLemmatizer lemmatizer = getInstance();
+        List<Integer> lengths = HebLemmasSettings.STARTUP_WARMUP_LENGTHS.get(nodeSettings);
+        int iterations = HebLemmasSettings.STARTUP_WARMUP_ITERATIONS.get(nodeSettings);
+        if (lengths.isEmpty() || iterations == 0) {
+            return;
+        }
+
+        STATS.onWarmupStarted();
+        long start = System.nanoTime();
+        try {
+            lemmatizer.warmUp(lengths, iterations);
+        } catch (Exception e) {
+            STATS.onLoadFailed();
+            throw e;
+        }
+        STATS.onWarmedUp(System.nanoTime() - start);
+        HebDebugger.log("Lemmatizer warmed up in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    /**
+     * Runs {@code iterations} single-sequence inferences per session for each length.
+     * Sessions are leased in FIFO order, so consecutive runs cycle through the whole pool.
+     * Bypasses the caches and the batcher and is not counted in the stats.
+     */
+    private void warmUp(List<Integer> lengths, int iterations) throws OrtException {
+        for (int length : lengths) {
+            List<InferenceBatcher.Request> batch = List.of(warmupRequest(length));
+            for (int i = 0; i < iterations * sessions.size(); i++) {
+                infer(batch, length);
+            }
+        }
+    }
+
+    /**
+     * {@code [CLS]}, pieces of {@link #WARMUP_TEXT} repeated up to {@code length - 1}, {@code [SEP]},
+     * with a prediction requested at every word start.
+     */
+    private InferenceBatcher.Request warmupRequest(int length) {
+        String[] words = WARMUP_TEXT.split(" ");
+        long[] ids = new long[length];
+        int[] positions = new int[length];
+        int[] pieces = new int[WordPieceTokenizer.maxPieces(WARMUP_TEXT.length())];
+        int wordCount = 0;
+        int pos = 0;
+        ids[pos++] = clsTokenId;
+        for (int w = 0; pos < length - 1; w = (w + 1) % words.length) {
+            char[] chars = words[w].toCharArray();
+            int count = tokenizer.encode(chars, 0, chars.length, pieces, 0);
+            positions[wordCount++] = pos;
+            for (int i = 0; i < count && pos < length - 1; i++) {
+                ids[pos++] = pieces[i];
+            }
+        }
+        ids[pos] = sepTokenId;
+        return new InferenceBatcher.Request(ids, Arrays.copyOf(positions, wordCount));
+    }
+
+    /**
+     * Number of word pieces the token occupies in the model input.
+     */
+    public int countWordPieces(String token) {
+        char[] chars = threadBuffers.get().chars(token.length());
+        token.getChars(0, token.length(), chars, 0);
+        return countWordPieces(chars, token.length());
+    }
+
+    /**
+     * Number of word pieces the first {@code length} chars of {@code buffer} occupy in the model input.
+     */
+    public int countWordPieces(char[] buffer, int length) {
+        int[] pieces = threadBuffers.get().pieces(WordPieceTokenizer.maxPieces(length));
+        return tokenizer.encode(buffer, 0, length, pieces, 0);
+    }
+
     public List<String> lemmatize(List<String> tokens) throws OrtException {
         if (tokens == null || tokens.isEmpty()) {
             return Collections.emptyList();
         }
 
-        List<int[]> wordPieceIds = new ArrayList<>();
-        List<Integer> allIds = new ArrayList<>();
-        allIds.add(clsTokenId);
+        long start = System.nanoTime();
+        try {
+            return lemmatizeCached(tokens);
+        } finally {
+            STATS.onAnalysis(tokens.size(), System.nanoTime() - start);
+        }
+    }
 
-        for (String token : tokens) {
-            int[] ids = tokenizer.encode(token);
-            wordPieceIds.add(ids);
-            for (int id : ids) {
-                allIds.add(id);
+    private List<String> lemmatizeCached(List<String> tokens) throws OrtException {
+        if (tokenCache != null && tokens.size() == 1) {
+            String token = tokens.get(0);
+            String lemma = tokenCache.get(token);
+            if (lemma == null) {
+                List<String> lemmas = lemmatizeSequence(tokens);
+                if (lemmas == null) {
+                    return overloaded(tokens);
+                }
+                lemma = lemmas.get(0);
+                tokenCache.put(token, lemma);
             }
+            return List.of(lemma);
         }
-        allIds.add(sepTokenId);
 
-        int seqLen = allIds.size();
-        long[][] inputIds = new long[1][seqLen];
-        long[][] attentionMask = new long[1][seqLen];
-        long[][] tokenTypeIds = new long[1][seqLen];
+        List<String> lemmas = lemmatizeSequence(tokens);
+        return lemmas != null ? lemmas : overloaded(tokens);
+    }
 
-        for (int i = 0; i < seqLen; i++) {
-            inputIds[0][i] = allIds.get(i);
-            attentionMask[0][i] = 1;
-            tokenTypeIds[0][i] = 0;
+    /**
+     * Lemmas of the tokens, or {@code null} if the sequence is not cached and the call was
+     * not admitted to inference.
+     */
+    private List<String> lemmatizeSequence(List<String> tokens) throws OrtException {
+        InferenceBatcher.Request request = encode(tokens);
+
+        SequenceKey key = null;
+        int[][] topK = null;
+        if (sequenceCache != null) {
+            key = new SequenceKey(request.ids);
+            topK = sequenceCache.get(key);
         }
 
-        float[][] logits = runInference(inputIds, attentionMask, tokenTypeIds);
+        if (topK == null) {
+            AdmissionControl admission = OnnxLemmatizer.admission;
+            if (!admission.tryAcquire()) {
+                return null;
+            }
+            try {
+                if (batcher != null) {
+                    topK = batcher.infer(request);
+                } else {
+                    runInference(List.of(request), request.length());
+                    topK = request.topK;
+                }
+            } finally {
+                admission.release();
+            }
+            if (key != null) {
+                sequenceCache.put(key, topK);
+            }
+        }
 
-        List<String> lemmas = new ArrayList<>();
-        int logitIdx = 1;
+        return lemmas(tokens, topK);
+    }
 
+    /**
+     * Result of a call that was not admitted, per {@code heb_lemmas.admission.overload_policy}.
+     * Not cached, so the tokens are lemmatized by the model once the node catches up.
+     */
+    private static List<String> overloaded(List<String> tokens) {
+        HebLemmasSettings.OverloadPolicy policy = admission.overloadPolicy();
+        STATS.onOverload(policy);
+        return switch (policy) {
+            case PASSTHROUGH -> tokens;
+            case PREFIX_STRIP -> {
+                List<String> stripped = new ArrayList<>(tokens.size());
+                for (String token : tokens) {
+                    stripped.add(HebrewPrefixes.strip(token, HebrewPrefixes.DEFAULT_MIN_STEM));
+                }
+                yield stripped;
+            }
+            case REJECT -> throw new EsRejectedExecutionException(
+                    "Hebrew lemmatizer is overloaded: no inference slot within [heb_lemmas.admission.queue_timeout]",
+                    false);
+        };
+    }
+
+    /**
+     * Lemmatizes independent sequences on the calling thread. Sequences missing from the
+     * cache are sorted by length and packed into padded batches bounded by
+     * {@code heb_lemmas.batch.max_size} and {@code heb_lemmas.batch.max_tokens}, so similar
+     * lengths share a session run and little of it is padding.
+     *
+     * Used by the ingest processor, which already collects the documents of a bulk request,
+     * so the {@link InferenceBatcher} wait window is not needed. Counted as one analysis call.
+     */
+    public List<List<String>> lemmatizeAll(List<List<String>> sequences) throws OrtException {
+        long start = System.nanoTime();
+        int words = 0;
+
+        int count = sequences.size();
+        InferenceBatcher.Request[] requests = new InferenceBatcher.Request[count];
+        SequenceKey[] keys = new SequenceKey[count];
+        int[][][] topKs = new int[count][][];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<String> tokens = sequences.get(i);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            words += tokens.size();
+            requests[i] = encode(tokens);
+            if (sequenceCache != null) {
+                keys[i] = new SequenceKey(requests[i].ids);
+                topKs[i] = sequenceCache.get(keys[i]);
+            }
+            if (topKs[i] == null) {
+                pending.add(i);
+            }
+        }
+
+        pending.sort(Comparator.comparingInt(i -> requests[i].length()));
+        List<InferenceBatcher.Request> batch = new ArrayList<>();
+        int maxLen = 0;
+        for (int i : pending) {
+            InferenceBatcher.Request request = requests[i];
+            int newMaxLen = Math.max(maxLen, request.length());
+            boolean full = batch.size() == maxBatchSize || (long) newMaxLen * (batch.size() + 1) > maxBatchTokens;
+            if (!batch.isEmpty() && full) {
+                runInference(batch, maxLen);
+                batch.clear();
+                newMaxLen = request.length();
+            }
+            batch.add(request);
+            maxLen = newMaxLen;
+        }
+        if (!batch.isEmpty()) {
+            runInference(batch, maxLen);
+        }
+
+        List<List<String>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> tokens = sequences.get(i);
+            if (tokens.isEmpty()) {
+                results.add(Collections.emptyList());
+                continue;
+            }
+            if (topKs[i] == null) {
+                topKs[i] = requests[i].topK;
+                if (keys[i] != null) {
+                    sequenceCache.put(keys[i], topKs[i]);
+                }
+            }
+            results.add(lemmas(tokens, topKs[i]));
+        }
+
+        STATS.onAnalysis(words, System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * {@code [CLS]}, the word pieces of every token, {@code [SEP]}, with the position of the
+     * first piece of each token ({@code -1} for context markers and tokens without pieces).
+     */
+    private InferenceBatcher.Request encode(List<String> tokens) {
+        int capacity = 2;
+        for (int i = 0; i < tokens.size(); i++) {
+            capacity += WordPieceTokenizer.maxPieces(tokens.get(i).length());
+        }
+
+        InferenceBuffers scratch = threadBuffers.get();
+        int[] pieces = scratch.pieces(capacity);
+        int[] positions = new int[tokens.size()];
+        int pos = 0;
+        pieces[pos++] = clsTokenId;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (CONTEXT_MARKER.equals(token)) {
+                pieces[pos++] = unkTokenId;
+                positions[i] = -1;
+                continue;
+            }
+            char[] chars = scratch.chars(token.length());
+            token.getChars(0, token.length(), chars, 0);
+            int count = tokenizer.encode(chars, 0, token.length(), pieces, pos);
+            positions[i] = count > 0 ? pos : -1;
+            pos += count;
+        }
+        pieces[pos++] = sepTokenId;
+
+        long[] inputIds = new long[pos];
+        for (int i = 0; i < pos; i++) {
+            inputIds[i] = pieces[i];
+        }
+        return new InferenceBatcher.Request(inputIds, positions);
+    }
+
+    private List<String> lemmas(List<String> tokens, int[][] topK) {
+        List<String> lemmas = new ArrayList<>(tokens.size());
         for (int i = 0; i < tokens.size(); i++) {
-            int[] wpIds = wordPieceIds.get(i);
             String originalToken = tokens.get(i);
-            if (logitIdx < logits.length) {
-                int[] topK = getTopK(logits[logitIdx], 3);
-                lemmas.add(selectBestLemma(originalToken, topK));
+            if (topK[i] != null) {
+                lemmas.add(selectBestLemma(originalToken, topK[i]));
             } else {
                 lemmas.add(originalToken);
             }
-            logitIdx += wpIds.length;
         }
-
         return lemmas;
     }
 
-    private float[][] runInference(long[][] inputIds, long[][] attentionMask, long[][] tokenTypeIds)
-            throws OrtException {
-        try (OnnxTensor idsTensor = OnnxTensor.createTensor(env, inputIds);
-             OnnxTensor maskTensor = OnnxTensor.createTensor(env, attentionMask);
-             OnnxTensor typeTensor = OnnxTensor.createTensor(env, tokenTypeIds)) {
+    /**
+     * Runs the model over a batch of sequences, right-padded to {@code maxLen} with a
+     * zero attention mask, and stores the top-k predictions for each requested position.
+     *
+     * Inputs are written into this thread's direct buffers and the logits are written by
+     * ONNX Runtime into a preallocated output buffer, so nothing of batch size is copied
+     * onto the heap.
+     */
+    void runInference(List<InferenceBatcher.Request> batch, int maxLen) throws OrtException {
+        long start = System.nanoTime();
+        infer(batch, maxLen);
+
+        STATS.onInference(batch.size(), System.nanoTime() - start);
+        for (InferenceBatcher.Request request : batch) {
+            STATS.onSequence(request.length());
+        }
+    }
+
+    private void infer(List<InferenceBatcher.Request> batch, int maxLen) throws OrtException {
+        InferenceBuffers buffers;
+        try {
+            buffers = inferenceBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrtException("Interrupted while waiting for inference buffers");
+        }
+        try {
+            infer(batch, maxLen, buffers);
+        } finally {
+            inferenceBuffers.add(buffers);
+        }
+    }
+
+    private void infer(List<InferenceBatcher.Request> batch, int maxLen, InferenceBuffers buffers) throws OrtException {
+        int batchSize = batch.size();
+        int size = batchSize * maxLen;
+        buffers.prepareInputs(size);
+        LongBuffer inputIds = buffers.inputIds();
+        LongBuffer attentionMask = buffers.attentionMask();
+
+        for (int b = 0; b < batchSize; b++) {
+            long[] ids = batch.get(b).ids;
+            int offset = b * maxLen;
+            for (int i = 0; i < maxLen; i++) {
+                if (i < ids.length) {
+                    inputIds.put(offset + i, ids[i]);
+                    attentionMask.put(offset + i, 1);
+                } else {
+                    inputIds.put(offset + i, padTokenId);
+                    attentionMask.put(offset + i, 0);
+                }
+            }
+        }
+
+        long[] shape = {batchSize, maxLen};
+        try (OnnxTensor idsTensor = OnnxTensor.createTensor(env, inputIds, shape);
+             OnnxTensor maskTensor = OnnxTensor.createTensor(env, attentionMask, shape);
+             OnnxTensor typeTensor = OnnxTensor.createTensor(env, buffers.tokenTypeIds(), shape)) {
 
             Map<String, OnnxTensor> inputs = new LinkedHashMap<>();
             inputs.put("input_ids", idsTensor);
             inputs.put("attention_mask", maskTensor);
             inputs.put("token_type_ids", typeTensor);
 
-            try (OrtSession.Result results = session.run(inputs)) {
-                OnnxValue output = results.get(0);
-                if (output instanceof OnnxTensor tensor) {
-                    long[] shape = tensor.getInfo().getShape();
-                    if (shape.length == 3) {
-                        float[][][] data = (float[][][]) tensor.getValue();
-                        return data[0];
-                    }
-                }
-                throw new OrtException("Unexpected output tensor format");
+            if (modelTopK > 0) {
+                runTopKModel(batch, inputs, buffers);
+            } else {
+                runLogitsModel(batch, maxLen, inputs, buffers);
             }
         }
     }
 
-    private int[] getTopK(float[] scores, int k) {
-        int vocabSize = scores.length;
-        boolean[] used = new boolean[vocabSize];
-        int[] topK = new int[k];
+    /**
+     * Runs the model on a leased session, writing outputs into the pinned tensors.
+     */
+    private void run(Map<String, OnnxTensor> inputs, Map<String, OnnxTensor> pinnedOutputs) throws OrtException {
+        OrtSession session = sessions.acquire();
+        try {
+            session.run(inputs, pinnedOutputs).close();
+        } finally {
+            sessions.release(session);
+        }
+    }
+
+    /**
+     * Full MLM head: logits for every position are written into the pinned output buffer
+     * and top-k is selected here for the first-subword positions.
+     */
+    private void runLogitsModel(List<InferenceBatcher.Request> batch, int maxLen, Map<String, OnnxTensor> inputs,
+                                InferenceBuffers buffers) throws OrtException {
+        int batchSize = batch.size();
+        FloatBuffer logits = buffers.prepareLogits(batchSize * maxLen, vocabSize);
+
+        try (OnnxTensor logitsTensor = OnnxTensor.createTensor(env, logits, new long[]{batchSize, maxLen, vocabSize})) {
+            run(inputs, Map.of(logitsOutputName, logitsTensor));
+        }
 
-        for (int i = 0; i < k; i++) {
-            float maxVal = Float.NEGATIVE_INFINITY;
-            int maxIdx = 0;
-            for (int j = 0; j < vocabSize; j++) {
-                if (!used[j] && scores[j] > maxVal) {
-                    maxVal = scores[j];
-                    maxIdx = j;
+        TopKSelector selector = buffers.topKSelector(TOP_K);
+        for (int b = 0; b < batchSize; b++) {
+            InferenceBatcher.Request request = batch.get(b);
+            request.topK = new int[request.positions.length][];
+            for (int w = 0; w < request.positions.length; w++) {
+                int position = request.positions[w];
+                if (position >= 0) {
+                    int rowOffset = (b * maxLen + position) * vocabSize;
+                    request.topK[w] = new int[TOP_K];
+                    selector.select(logits, rowOffset, vocabSize, request.topK[w]);
                 }
             }
-            topK[i] = maxIdx;
-            used[maxIdx] = true;
         }
-        return topK;
     }
 
-    private String selectBestLemma(String originalToken, int[] topK) {
-        Set<Character> significantChars = new HashSet<>();
-        for (char c : originalToken.toCharArray()) {
-            if (!WEAK_LETTERS.contains(c)) {
-                significantChars.add(c);
+    /**
+     * Model exported with an in-graph gather + TopK: the first-subword positions are an
+     * extra input and the session returns only {@code [batch, words, k]} vocabulary ids.
+     */
+    private void runTopKModel(List<InferenceBatcher.Request> batch, Map<String, OnnxTensor> inputs,
+                              InferenceBuffers buffers) throws OrtException {
+        int batchSize = batch.size();
+        int maxWords = 1;
+        for (InferenceBatcher.Request request : batch) {
+            maxWords = Math.max(maxWords, request.positions.length);
+        }
+
+        // Padding and empty words point at [CLS]; their predictions are ignored
+        LongBuffer positions = buffers.preparePositions(batchSize * maxWords);
+        for (int b = 0; b < batchSize; b++) {
+            int[] requestPositions = batch.get(b).positions;
+            for (int w = 0; w < maxWords; w++) {
+                int position = w < requestPositions.length ? requestPositions[w] : 0;
+                positions.put(b * maxWords + w, Math.max(0, position));
             }
         }
 
+        LongBuffer topKIndices = buffers.prepareTopKIndices(batchSize * maxWords * modelTopK);
+        try (OnnxTensor positionsTensor = OnnxTensor.createTensor(env, positions, new long[]{batchSize, maxWords});
+             OnnxTensor topKTensor = OnnxTensor.createTensor(env, topKIndices, new long[]{batchSize, maxWords, modelTopK})) {
+            inputs.put(POSITIONS_INPUT, positionsTensor);
+            run(inputs, Map.of(TOPK_INDICES_OUTPUT, topKTensor));
+        }
+
+        for (int b = 0; b < batchSize; b++) {
+            InferenceBatcher.Request request = batch.get(b);
+            request.topK = new int[request.positions.length][];
+            for (int w = 0; w < request.positions.length; w++) {
+                if (request.positions[w] >= 0) {
+                    int[] ids = new int[modelTopK];
+                    int offset = (b * maxWords + w) * modelTopK;
+                    for (int i = 0; i < modelTopK; i++) {
+                        ids[i] = (int) topKIndices.get(offset + i);
+                    }
+                    request.topK[w] = ids;
+                }
+            }
+        }
+    }
+
+    /**
+     * First top-k prediction that is a whole word sharing enough significant letters with
+     * the original token (see {@link LetterMask}), or the original token itself.
+     */
+    String selectBestLemma(String originalToken, int[] topK) {
+        int originalMask = LetterMask.of(originalToken);
+
         for (int predId : topK) {
-            if (predId < 0 || predId >= vocab.length) {
+            if (predId < 0 || predId >= letterMasks.length) {
                 continue;
             }
 
-            String candidate = vocab[predId];
-            if (candidate.startsWith("[") || candidate.startsWith("##")) {
+            int candidateMask = letterMasks[predId];
+            if ((candidateMask & LetterMask.SPECIAL) != 0) {
                 continue;
             }
 
-            int overlap = 0;
-            Set<Character> candSignificant = new HashSet<>();
-            for (char c : candidate.toCharArray()) {
-                if (!WEAK_LETTERS.contains(c)) {
-                    candSignificant.add(c);
-                    if (significantChars.contains(c)) {
-                        overlap++;
-                    }
+            if (((originalMask | candidateMask) & LetterMask.OTHER) == 0) {
+                if (LetterMask.overlaps(originalMask, candidateMask, repeatedLetters[predId])) {
+                    return vocab.token(predId);
+                }
+            } else {
+                String candidate = vocab.token(predId);
+                if (LetterMask.overlaps(originalToken, candidate)) {
+                    return candidate;
                 }
-            }
-
-            int minRequired = Math.min(2, Math.min(significantChars.size(), candSignificant.size()));
-            if (overlap >= minRequired) {
-                return candidate;
             }
         }
 
         return originalToken;
     }
 
-    private static Path extractModelResources() throws IOException {
-        String dataPath = System.getProperty("es.path.data");
-        if (dataPath == null) {
-            dataPath = System.getProperty("java.io.tmpdir");
+    /**
+     * Counters of the sequence cache, or {@code null} when it is disabled.
+     */
+    public LemmaCache.Stats sequenceCacheStats() {
+        return sequenceCache != null ? sequenceCache.stats() : null;
+    }
+
+    /**
+     * Counters of the single-token cache, or {@code null} when it is disabled.
+     */
+    public LemmaCache.Stats tokenCacheStats() {
+        return tokenCache != null ? tokenCache.stats() : null;
+    }
+
+    private static long sequenceEntryBytes(SequenceKey key, int[][] topK) {
+        long bytes = 64 + 8L * key.ids.length + 16;
+        for (int[] ids : topK) {
+            bytes += ids != null ? 16 + 4L * ids.length : 4;
         }
+        return bytes;
+    }
 
-        Path cacheDir = Path.of(dataPath, "heb-lemmatizer");
-        Files.createDirectories(cacheDir);
+    private static long tokenEntryBytes(String token, String lemma) {
+        return 96 + 2L * (token.length() + lemma.length());
+    }
 
-        String[] resources = {"model.onnx", "tokenizer.json"};
-        for (String resource : resources) {
-            Path targetPath = cacheDir.resolve(resource);
-            if (!Files.exists(targetPath)) {
-                String resourcePath = "model/" + resource;
-                InputStream is = OnnxLemmatizer.class.getModule().getResourceAsStream(resourcePath);
-                if (is == null) {
-                    is = OnnxLemmatizer.class.getClassLoader().getResourceAsStream(resourcePath);
-                }
-                try (InputStream stream = is) {
-                    if (stream == null) {
-                        throw new IOException("Resource not found in JAR: " + resourcePath);
-                    }
-                    Files.copy(stream, targetPath, StandardCopyOption.REPLACE_EXISTING);
-                }
-            }
+    /**
+     * Cache key over the encoded word-piece sequence, which fully determines the model output.
+     */
+    private static final class SequenceKey {
+        private final long[] ids;
+        private final int hash;
+
+        SequenceKey(long[] ids) {
+            this.ids = ids;
+            this.hash = Arrays.hashCode(ids);
         }
 
-        return cacheDir;
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SequenceKey other && hash == other.hash && Arrays.equals(ids, other.ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
 
     @Override
     public void close() throws Exception {
-        if (session != null) {
-            session.close();
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (sessions != null) {
+            sessions.close();
         }
         if (env != null) {
             env.close();
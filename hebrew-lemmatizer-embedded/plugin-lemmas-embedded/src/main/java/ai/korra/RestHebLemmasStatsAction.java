@@ -0,0 +1,38 @@
+package ai.korra;
+
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+import java.util.List;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * {@code GET _nodes/heb_lemmas/stats} and {@code GET _nodes/{nodeId}/heb_lemmas/stats}.
+ */
+public class RestHebLemmasStatsAction extends BaseRestHandler {
+
+    @Override
+    public String getName() {
+        return "heb_lemmas_stats_action";
+    }
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+                new Route(GET, "/_nodes/heb_lemmas/stats"),
+                new Route(GET, "/_nodes/{nodeId}/heb_lemmas/stats")
+        );
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String[] nodesIds = Strings.splitStringByCommaToArray(request.param("nodeId"));
+        HebLemmasStatsAction.Request statsRequest = new HebLemmasStatsAction.Request(nodesIds);
+        return channel -> client.execute(HebLemmasStatsAction.INSTANCE, statsRequest,
+                new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
@@ -0,0 +1,88 @@
+package ai.korra;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed set of ONNX Runtime sessions over the same model.
+ *
+ * Callers lease a session for the duration of one {@code run} and hand it back, so the
+ * number of concurrent runs (and the cores they use) is bounded by the pool size times
+ * the per-session thread count.
+ */
+final class SessionPool implements AutoCloseable {
+
+    private final OrtSession[] sessions;
+    private final BlockingQueue<OrtSession> idle;
+
+    /**
+     * Creates one session over the model, e.g. from a file or from the model bytes.
+     */
+    interface SessionFactory {
+        OrtSession create() throws OrtException;
+    }
+
+    SessionPool(SessionFactory factory, int size) throws OrtException {
+        this.sessions = new OrtSession[size];
+        this.idle = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                sessions[i] = factory.create();
+                idle.add(sessions[i]);
+            }
+        } catch (OrtException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Any session, for reading model metadata. Must not be used to run inference.
+     */
+    OrtSession metadata() {
+        return sessions[0];
+    }
+
+    int size() {
+        return sessions.length;
+    }
+
+    /**
+     * Blocks until a session is free. Every lease must be returned with {@link #release}.
+     */
+    OrtSession acquire() throws OrtException {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrtException("Interrupted while waiting for an inference session");
+        }
+    }
+
+    void release(OrtSession session) {
+        idle.offer(session);
+    }
+
+    @Override
+    public void close() throws OrtException {
+        OrtException failure = null;
+        for (OrtSession session : sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (OrtException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
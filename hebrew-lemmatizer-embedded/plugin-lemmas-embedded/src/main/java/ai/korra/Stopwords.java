@@ -1,12 +1,33 @@
 package ai.korra;
 
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.CharArraySet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 
+/**
+ * Built-in Hebrew stopwords, compiled into a {@link CharArraySet} that is shared by all
+ * filters and matched directly against term buffers.
+ *
+ * The lemma of each built-in stopword, for {@code lemma_aware} filters, is computed with
+ * the bundled model when the plugin is built ({@link #main}) and shipped as
+ * {@code model/stopword_lemmas.txt}, so it does not depend on the model at runtime.
+ */
 public class Stopwords {
 
-    private final HebDebugger debugger = new HebDebugger();
-    private final List<String> stopwordList = Arrays.asList(
+    private static final List<String> HEBREW_STOPWORDS = Arrays.asList(
             "אבל", "או", "אחר", "אך", "אל", "אם", "את", "בין", "גם", "דרך", "הוא",
             "היה", "זאת", "זה", "יותר", "יש", "כי", "כך", "כן", "לא", "לפני", "מה",
             "מי", "עד", "על", "עם", "רק", "של", "שם", "אדם", "אותה", "אותו", "אותם",
@@ -17,12 +38,105 @@ public class Stopwords {
             "אז", "_", "אילו", "אלו"
     );
 
+    public static final CharArraySet DEFAULT = CharArraySet.unmodifiableSet(new CharArraySet(HEBREW_STOPWORDS, false));
+
+    static final String LEMMAS_FILE = "stopword_lemmas.txt";
+
+    /**
+     * Lemma of each built-in stopword; empty if the build did not include them.
+     */
+    static final CharArrayMap<String> DEFAULT_LEMMAS = CharArrayMap.unmodifiableMap(readLemmas());
+
+    private final CharArraySet stopwords;
+
+    public Stopwords() {
+        this(DEFAULT);
+    }
+
+    public Stopwords(CharArraySet stopwords) {
+        this.stopwords = stopwords;
+    }
+
     public boolean isNotStopword(String term) {
-        if (stopwordList.contains(term)) {
-            String reversedText = new StringBuilder(term).reverse().toString();
-            debugger.debugPrint("Heb stopwords found and removed : " + reversedText);
+        return !isStopword(term.toCharArray(), term.length());
+    }
+
+    /**
+     * Tests the first {@code length} chars of {@code buffer} without copying them.
+     */
+    public boolean isStopword(char[] buffer, int length) {
+        if (!stopwords.contains(buffer, 0, length)) {
             return false;
         }
+        if (HebDebugger.isEnabled()) {
+            String reversedText = new StringBuilder().append(buffer, 0, length).reverse().toString();
+            HebDebugger.log("Heb stopwords found and removed : " + reversedText);
+        }
         return true;
     }
+
+    /**
+     * Reads {@code model/stopword_lemmas.txt}: one {@code word<TAB>lemma} line per built-in stopword.
+     */
+    private static CharArrayMap<String> readLemmas() {
+        CharArrayMap<String> lemmas = new CharArrayMap<>(HEBREW_STOPWORDS.size(), false);
+        String resourcePath = "model/" + LEMMAS_FILE;
+        try {
+            InputStream stream = Stopwords.class.getModule().getResourceAsStream(resourcePath);
+            if (stream == null) {
+                stream = Stopwords.class.getClassLoader().getResourceAsStream(resourcePath);
+            }
+            if (stream == null) {
+                return lemmas;
+            }
+            readLemmas(stream, lemmas);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + resourcePath, e);
+        }
+        return lemmas;
+    }
+
+    private static void readLemmas(InputStream stream, CharArrayMap<String> lemmas) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    lemmas.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Lemmatizes the built-in stopwords, each on its own as the filter sees them, and writes
+     * the stopword lemmas file. Run by the build with the local model.
+     *
+     * <pre>java ai.korra.Stopwords path/to/stopword_lemmas.txt</pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: Stopwords <" + LEMMAS_FILE + ">");
+            System.exit(2);
+        }
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(HEBREW_STOPWORDS));
+        List<List<String>> sequences = new ArrayList<>(words.size());
+        for (String word : words) {
+            sequences.add(List.of(word));
+        }
+
+        OnnxLemmatizer lemmatizer = OnnxLemmatizer.getInstance();
+        List<List<String>> lemmas = lemmatizer.lemmatizeAll(sequences);
+        Path out = Path.of(args[0]);
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < words.size(); i++) {
+                writer.write(words.get(i) + "\t" + lemmas.get(i).get(0) + "\n");
+            }
+        }
+        System.out.println("Wrote the lemmas of " + words.size() + " stopwords to " + out);
+        lemmatizer.close();
+    }
 }
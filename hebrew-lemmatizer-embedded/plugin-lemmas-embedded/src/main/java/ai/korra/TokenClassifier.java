@@ -0,0 +1,78 @@
+package ai.korra;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides which tokens are worth sending to the model: a token is lemmatized only if it
+ * contains at least one char from the configured classes. Everything else (numbers,
+ * Latin SKUs, URLs, emoji, punctuation) passes through unchanged.
+ */
+final class TokenClassifier {
+
+    static final TokenClassifier HEBREW = new TokenClassifier(false, true, false, false);
+    static final TokenClassifier ALL = new TokenClassifier(true, true, true, true);
+
+    private final boolean all;
+    private final boolean hebrew;
+    private final boolean latin;
+    private final boolean digit;
+
+    private TokenClassifier(boolean all, boolean hebrew, boolean latin, boolean digit) {
+        this.all = all;
+        this.hebrew = hebrew;
+        this.latin = latin;
+        this.digit = digit;
+    }
+
+    /**
+     * Parses char class names: {@code hebrew}, {@code latin}, {@code digit}, or {@code all}
+     * to send every token to the model.
+     */
+    static TokenClassifier of(List<String> classes) {
+        boolean hebrew = false;
+        boolean latin = false;
+        boolean digit = false;
+        for (String name : classes) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "all" -> {
+                    return ALL;
+                }
+                case "hebrew" -> hebrew = true;
+                case "latin" -> latin = true;
+                case "digit" -> digit = true;
+                default -> throw new IllegalArgumentException("Unknown char class [" + name
+                        + "], expected one of [hebrew, latin, digit, all]");
+            }
+        }
+        if (!hebrew && !latin && !digit) {
+            throw new IllegalArgumentException("At least one char class is required");
+        }
+        return hebrew && !latin && !digit ? HEBREW : new TokenClassifier(false, hebrew, latin, digit);
+    }
+
+    boolean shouldLemmatize(char[] buffer, int length) {
+        if (all) {
+            return true;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = buffer[i];
+            if (hebrew && isHebrewLetter(c)) {
+                return true;
+            }
+            if (latin && c < 0x250 && Character.isLetter(c)) {
+                return true;
+            }
+            if (digit && Character.isDigit(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isHebrewLetter(char c) {
+        return (c >= '\u05D0' && c <= '\u05EA')     // alef..tav
+                || (c >= '\u05F0' && c <= '\u05F2') // yiddish ligatures
+                || (c >= '\uFB1D' && c <= '\uFB4F'); // presentation forms
+    }
+}
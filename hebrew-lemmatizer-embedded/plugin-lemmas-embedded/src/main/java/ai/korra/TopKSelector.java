@@ -0,0 +1,100 @@
+package ai.korra;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Single-pass top-k selection over a row of scores.
+ *
+ * Candidates are kept in a tiny sorted array and a value is only inserted when it
+ * beats the current k-th score. When {@code jdk.incubator.vector} is available the
+ * row is scanned a vector at a time and only lanes above the threshold are visited.
+ * An instance is not thread-safe and allocates nothing per call once its scratch row
+ * has grown to the vocabulary size.
+ */
+final class TopKSelector {
+
+    private static final boolean VECTORIZED = vectorSupported();
+
+    private final int k;
+    private final int[] ids;
+    private final float[] scores;
+    private float[] row = new float[0];
+
+    TopKSelector(int k) {
+        this.k = k;
+        this.ids = new int[k];
+        this.scores = new float[k];
+    }
+
+    int k() {
+        return k;
+    }
+
+    /**
+     * Selects the top-k ids of {@code buffer[offset, offset + length)} into {@code dst}, best first.
+     */
+    void select(FloatBuffer buffer, int offset, int length, int[] dst) {
+        if (row.length < length) {
+            row = new float[length];
+        }
+        buffer.get(offset, row, 0, length);
+        select(row, 0, length, dst);
+    }
+
+    /**
+     * Selects the top-k ids of {@code values[from, from + length)} into {@code dst}, best first.
+     * Ties keep the lower id, matching a repeated arg-max.
+     */
+    void select(float[] values, int from, int length, int[] dst) {
+        Arrays.fill(ids, 0);
+        Arrays.fill(scores, Float.NEGATIVE_INFINITY);
+
+        int end = from + length;
+        int i = from;
+        if (VECTORIZED) {
+            i = VectorizedTopKScan.scan(this, values, from, end);
+        }
+        for (; i < end; i++) {
+            float value = values[i];
+            if (value > scores[k - 1]) {
+                insert(i - from, value);
+            }
+        }
+        System.arraycopy(ids, 0, dst, 0, k);
+    }
+
+    float threshold() {
+        return scores[k - 1];
+    }
+
+    void insert(int id, float score) {
+        int pos = k - 1;
+        while (pos > 0 && score > scores[pos - 1]) {
+            scores[pos] = scores[pos - 1];
+            ids[pos] = ids[pos - 1];
+            pos--;
+        }
+        scores[pos] = score;
+        ids[pos] = id;
+    }
+
+    private static boolean vectorSupported() {
+        Optional<Module> vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector");
+        if (vectorModule.isEmpty()) {
+            HebDebugger.log("jdk.incubator.vector not available, using scalar top-k");
+            return false;
+        }
+        try {
+            TopKSelector.class.getModule().addReads(vectorModule.get());
+            TopKSelector probe = new TopKSelector(1);
+            VectorizedTopKScan.scan(probe, new float[64], 0, 64);
+            HebDebugger.log("Using vectorized top-k");
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            HebDebugger.log("Vectorized top-k unavailable, using scalar: " + e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ai.korra;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.injection.guice.Inject;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fans {@link HebLemmasStatsAction} out to the nodes and reads each node's local stats.
+ * Never loads the model: nodes that have not lemmatized anything yet report it as not loaded.
+ */
+public class TransportHebLemmasStatsAction extends TransportNodesAction<
+        HebLemmasStatsAction.Request,
+        HebLemmasStatsAction.Response,
+        HebLemmasStatsAction.NodeRequest,
+        HebLemmasStatsAction.NodeResponse,
+        Void> {
+
+    @Inject
+    public TransportHebLemmasStatsAction(ThreadPool threadPool, ClusterService clusterService,
+                                         TransportService transportService, ActionFilters actionFilters) {
+        super(HebLemmasStatsAction.NAME, clusterService, transportService, actionFilters,
+                HebLemmasStatsAction.NodeRequest::new, threadPool.executor(ThreadPool.Names.MANAGEMENT));
+    }
+
+    @Override
+    protected HebLemmasStatsAction.Response newResponse(HebLemmasStatsAction.Request request,
+                                                        List<HebLemmasStatsAction.NodeResponse> responses,
+                                                        List<FailedNodeException> failures) {
+        return new HebLemmasStatsAction.Response(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected HebLemmasStatsAction.NodeRequest newNodeRequest(HebLemmasStatsAction.Request request) {
+        return new HebLemmasStatsAction.NodeRequest();
+    }
+
+    @Override
+    protected HebLemmasStatsAction.NodeResponse newNodeResponse(StreamInput in, DiscoveryNode node) throws IOException {
+        return new HebLemmasStatsAction.NodeResponse(in, node);
+    }
+
+    @Override
+    protected HebLemmasStatsAction.NodeResponse nodeOperation(HebLemmasStatsAction.NodeRequest request, Task task) {
+        return new HebLemmasStatsAction.NodeResponse(clusterService.localNode(), OnnxLemmatizer.statsSnapshot());
+    }
+}
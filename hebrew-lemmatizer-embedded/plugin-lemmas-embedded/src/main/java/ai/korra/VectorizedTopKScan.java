@@ -0,0 +1,40 @@
+package ai.korra;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector part of {@link TopKSelector}; only loaded when {@code jdk.incubator.vector} is present.
+ */
+final class VectorizedTopKScan {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private VectorizedTopKScan() {
+    }
+
+    /**
+     * Scans whole vectors of {@code values[from, end)}, inserting lanes above the current
+     * threshold, and returns the index where the scalar tail starts.
+     */
+    static int scan(TopKSelector selector, float[] values, int from, int end) {
+        int lanes = SPECIES.length();
+        int upper = from + SPECIES.loopBound(end - from);
+        int i = from;
+        for (; i < upper; i += lanes) {
+            FloatVector v = FloatVector.fromArray(SPECIES, values, i);
+            VectorMask<Float> above = v.compare(VectorOperators.GT, selector.threshold());
+            if (above.anyTrue()) {
+                for (int lane = above.firstTrue(); lane < lanes; lane++) {
+                    float value = values[i + lane];
+                    if (value > selector.threshold()) {
+                        selector.insert(i + lane - from, value);
+                    }
+                }
+            }
+        }
+        return i;
+    }
+}
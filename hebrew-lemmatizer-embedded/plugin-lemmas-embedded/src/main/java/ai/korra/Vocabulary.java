@@ -0,0 +1,239 @@
+package ai.korra;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WordPiece vocabulary: token strings by id plus the lookup tries used by the tokenizer.
+ *
+ * The vocabulary is compiled from {@code tokenizer.json} at build time into a compact
+ * binary file ({@value #FILE_NAME}) that is memory-mapped read-only at runtime, so
+ * nothing is parsed at startup and the data lives outside the Java heap. Layout, all
+ * little-endian and 4-byte aligned:
+ *
+ * <pre>
+ * int magic, int version, int size, int charCount
+ * int[size + 1] tokenOffsets      token i is tokenChars[tokenOffsets[i] .. tokenOffsets[i + 1])
+ * char[charCount] tokenChars
+ * trie wordTrie                   all entries
+ * trie continuationTrie           "##" entries, prefix removed
+ * </pre>
+ *
+ * Run {@link #main(String[])} to compile a vocabulary file.
+ */
+final class Vocabulary {
+
+    static final String FILE_NAME = "vocab.bin";
+
+    private static final int MAGIC = 0x31564248; // "HBV1"
+    private static final int VERSION = 1;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final String CONTINUATION_PREFIX = "##";
+
+    private final int size;
+    private final IntBuffer tokenOffsets;
+    private final CharBuffer tokenChars;
+    private final WordPieceTrie wordTrie;
+    private final WordPieceTrie continuationTrie;
+
+    private Vocabulary(int size, IntBuffer tokenOffsets, CharBuffer tokenChars,
+                       WordPieceTrie wordTrie, WordPieceTrie continuationTrie) {
+        this.size = size;
+        this.tokenOffsets = tokenOffsets;
+        this.tokenChars = tokenChars;
+        this.wordTrie = wordTrie;
+        this.continuationTrie = continuationTrie;
+    }
+
+    /**
+     * Parses the vocabulary of a HuggingFace {@code tokenizer.json} onto the heap.
+     */
+    static Vocabulary fromTokenizerJson(InputStream inputStream) throws IOException {
+        Map<String, Integer> vocab = new HashMap<>();
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            JsonObject root = new Gson().fromJson(reader, JsonObject.class);
+            JsonObject vocabObj = root.getAsJsonObject("model").getAsJsonObject("vocab");
+            for (Map.Entry<String, JsonElement> entry : vocabObj.entrySet()) {
+                vocab.put(entry.getKey(), entry.getValue().getAsInt());
+            }
+        }
+
+        int size = 0;
+        int charCount = 0;
+        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+            size = Math.max(size, entry.getValue() + 1);
+            charCount += entry.getKey().length();
+        }
+        String[] tokens = new String[size];
+        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+            tokens[entry.getValue()] = entry.getKey();
+        }
+
+        int[] offsets = new int[size + 1];
+        char[] chars = new char[charCount];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = pos;
+            if (tokens[i] != null) {
+                tokens[i].getChars(0, tokens[i].length(), chars, pos);
+                pos += tokens[i].length();
+            }
+        }
+        offsets[size] = pos;
+
+        return new Vocabulary(size, IntBuffer.wrap(offsets), CharBuffer.wrap(chars),
+                WordPieceTrie.build(vocab, ""), WordPieceTrie.build(vocab, CONTINUATION_PREFIX));
+    }
+
+    /**
+     * Memory-maps a compiled vocabulary file read-only.
+     */
+    static Vocabulary map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path.toString());
+        }
+    }
+
+    /**
+     * Reads a compiled vocabulary from a buffer holding the whole file, without copying.
+     */
+    static Vocabulary read(ByteBuffer file, String source) throws IOException {
+        ByteBuffer buffer = file.order(ORDER);
+        if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a compiled vocabulary: " + source);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported vocabulary version " + version + " in " + source);
+        }
+        int size = buffer.getInt();
+        int charCount = buffer.getInt();
+        IntBuffer tokenOffsets = sliceInts(buffer, size + 1);
+        CharBuffer tokenChars = sliceChars(buffer, charCount);
+        WordPieceTrie wordTrie = WordPieceTrie.read(buffer);
+        WordPieceTrie continuationTrie = WordPieceTrie.read(buffer);
+        return new Vocabulary(size, tokenOffsets, tokenChars, wordTrie, continuationTrie);
+    }
+
+    void write(Path path) throws IOException {
+        int charCount = tokenOffsets.get(size);
+        int length = 16 + intsSize(size + 1) + charsSize(charCount)
+                + wordTrie.serializedSize() + continuationTrie.serializedSize();
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ORDER);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(size);
+        buffer.putInt(charCount);
+        putInts(buffer, tokenOffsets);
+        putChars(buffer, tokenChars);
+        wordTrie.writeTo(buffer);
+        continuationTrie.writeTo(buffer);
+        Files.write(path, buffer.array());
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The token string for {@code id}; ids outside the vocabulary map to {@code null}.
+     */
+    String token(int id) {
+        if (id < 0 || id >= size) {
+            return null;
+        }
+        int start = tokenOffsets.get(id);
+        char[] chars = new char[tokenOffsets.get(id + 1) - start];
+        tokenChars.get(start, chars);
+        return new String(chars);
+    }
+
+    /**
+     * The id of {@code token}, or -1 if it is not in the vocabulary.
+     */
+    int id(String token) {
+        return wordTrie.get(token);
+    }
+
+    WordPieceTrie wordTrie() {
+        return wordTrie;
+    }
+
+    WordPieceTrie continuationTrie() {
+        return continuationTrie;
+    }
+
+    static int intsSize(int count) {
+        return count * Integer.BYTES;
+    }
+
+    static int charsSize(int count) {
+        // Padded so the following section stays int-aligned
+        return (count * Character.BYTES + 3) & ~3;
+    }
+
+    static IntBuffer sliceInts(ByteBuffer buffer, int count) {
+        IntBuffer ints = buffer.slice(buffer.position(), intsSize(count)).order(ORDER).asIntBuffer();
+        buffer.position(buffer.position() + intsSize(count));
+        return ints;
+    }
+
+    static CharBuffer sliceChars(ByteBuffer buffer, int count) {
+        CharBuffer chars = buffer.slice(buffer.position(), count * Character.BYTES).order(ORDER).asCharBuffer();
+        buffer.position(buffer.position() + charsSize(count));
+        return chars;
+    }
+
+    static void putInts(ByteBuffer buffer, IntBuffer ints) {
+        for (int i = 0; i < ints.limit(); i++) {
+            buffer.putInt(ints.get(i));
+        }
+    }
+
+    static void putChars(ByteBuffer buffer, CharBuffer chars) {
+        int end = buffer.position() + charsSize(chars.limit());
+        for (int i = 0; i < chars.limit(); i++) {
+            buffer.putChar(chars.get(i));
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Compiles {@code tokenizer.json} into a binary vocabulary file.
+     *
+     * <pre>java ai.korra.Vocabulary path/to/tokenizer.json path/to/vocab.bin</pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: Vocabulary <tokenizer.json> <" + FILE_NAME + ">");
+            System.exit(2);
+        }
+        Vocabulary vocabulary;
+        try (InputStream in = Files.newInputStream(Path.of(args[0]))) {
+            vocabulary = fromTokenizerJson(in);
+        }
+        Path out = Path.of(args[1]);
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        vocabulary.write(out);
+        System.out.println("Compiled " + vocabulary.size() + " tokens into " + out + " (" + Files.size(out) + " bytes)");
+    }
+}
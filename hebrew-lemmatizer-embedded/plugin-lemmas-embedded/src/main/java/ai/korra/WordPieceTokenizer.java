@@ -1,55 +1,42 @@
 package ai.korra;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Pure Java WordPiece tokenizer for BERT models.
- * Reads vocabulary from HuggingFace tokenizer.json format.
+ * Reads vocabulary from HuggingFace tokenizer.json format, or from a compiled
+ * {@link Vocabulary} file.
+ *
+ * Greedy longest-match runs over two tries, one for word-initial pieces and one for
+ * {@code ##} continuation pieces, directly on a {@code char[]} and writes ids into a
+ * caller-provided {@code int[]}.
  */
 public class WordPieceTokenizer {
 
-    private final Map<String, Integer> vocab;
-    private final String[] reverseVocab;
+    private final Vocabulary vocabulary;
     private final int unkTokenId;
     private final int maxInputCharsPerWord;
+    private final WordPieceTrie wordTrie;
+    private final WordPieceTrie continuationTrie;
 
     public WordPieceTokenizer(String tokenizerJsonPath) throws java.io.IOException {
         this(Files.newInputStream(Path.of(tokenizerJsonPath)));
     }
 
     public WordPieceTokenizer(InputStream inputStream) throws java.io.IOException {
-        this.maxInputCharsPerWord = 100;
-        this.vocab = new HashMap<>();
-
-        Gson gson = new Gson();
-        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
-            JsonObject root = gson.fromJson(reader, JsonObject.class);
-            JsonObject model = root.getAsJsonObject("model");
-            JsonObject vocabObj = model.getAsJsonObject("vocab");
-            for (Map.Entry<String, JsonElement> entry : vocabObj.entrySet()) {
-                vocab.put(entry.getKey(), entry.getValue().getAsInt());
-            }
-        }
-
-        this.reverseVocab = new String[vocab.size()];
-        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
-            reverseVocab[entry.getValue()] = entry.getKey();
-        }
+        this(Vocabulary.fromTokenizerJson(inputStream));
+    }
 
-        this.unkTokenId = vocab.getOrDefault("[UNK]", 100);
+    WordPieceTokenizer(Vocabulary vocabulary) {
+        this.maxInputCharsPerWord = 100;
+        this.vocabulary = vocabulary;
+        int unk = vocabulary.id("[UNK]");
+        this.unkTokenId = unk >= 0 ? unk : 100;
+        this.wordTrie = vocabulary.wordTrie();
+        this.continuationTrie = vocabulary.continuationTrie();
     }
 
     public int[] encode(String word) {
@@ -57,59 +44,56 @@ public class WordPieceTokenizer {
             return new int[0];
         }
 
-        List<Integer> tokens = new ArrayList<>();
+        char[] chars = word.toCharArray();
+        int[] ids = new int[maxPieces(chars.length)];
+        int count = encode(chars, 0, chars.length, ids, 0);
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
 
-        if (vocab.containsKey(word)) {
-            return new int[]{vocab.get(word)};
+    /**
+     * Encodes {@code chars[offset, offset + length)} into {@code out} starting at
+     * {@code outOffset}, which must have room for {@link #maxPieces(int)} ids.
+     *
+     * @return the number of ids written
+     */
+    public int encode(char[] chars, int offset, int length, int[] out, int outOffset) {
+        if (length == 0) {
+            return 0;
         }
-
-        char[] chars = word.toCharArray();
-        if (chars.length > maxInputCharsPerWord) {
-            tokens.add(unkTokenId);
-            return toIntArray(tokens);
+        if (length > maxInputCharsPerWord) {
+            out[outOffset] = unkTokenId;
+            return 1;
         }
 
-        int start = 0;
-        while (start < chars.length) {
-            int end = chars.length;
-            String curSubstr = null;
-            while (start < end) {
-                String substr = new String(chars, start, end - start);
-                if (start > 0) {
-                    substr = "##" + substr;
-                }
-                if (vocab.containsKey(substr)) {
-                    curSubstr = substr;
-                    break;
-                }
-                end--;
-            }
-
-            if (curSubstr == null) {
-                tokens.add(unkTokenId);
+        int count = 0;
+        int start = offset;
+        int end = offset + length;
+        while (start < end) {
+            WordPieceTrie trie = start == offset ? wordTrie : continuationTrie;
+            long match = trie.longestMatch(chars, start, end);
+            if (match < 0) {
+                out[outOffset + count++] = unkTokenId;
                 break;
             }
-
-            tokens.add(vocab.get(curSubstr));
-            start = end;
+            out[outOffset + count++] = (int) match;
+            start = (int) (match >>> 32);
         }
-
-        return toIntArray(tokens);
+        return count;
     }
 
-    public int getTokenId(String token) {
-        return vocab.getOrDefault(token, unkTokenId);
+    /**
+     * Upper bound on the number of ids a word of {@code length} chars encodes to.
+     */
+    public static int maxPieces(int length) {
+        return Math.max(1, length);
     }
 
-    public String[] getVocab() {
-        return reverseVocab.clone();
+    public int getTokenId(String token) {
+        int id = vocabulary.id(token);
+        return id >= 0 ? id : unkTokenId;
     }
 
-    private int[] toIntArray(List<Integer> list) {
-        int[] arr = new int[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            arr[i] = list.get(i);
-        }
-        return arr;
+    Vocabulary getVocabulary() {
+        return vocabulary;
     }
 }
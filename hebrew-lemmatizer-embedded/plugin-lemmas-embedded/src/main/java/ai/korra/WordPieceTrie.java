@@ -0,0 +1,188 @@
+package ai.korra;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compact char trie over word pieces, used for greedy longest-match lookups.
+ *
+ * Nodes are numbered breadth-first and stored in flat buffers: the outgoing edges
+ * of node {@code n} are {@code labels/targets[edgeStart[n] .. edgeStart[n + 1])},
+ * sorted by label so a child is found with a binary search. {@code values[n]} holds
+ * the token id that ends at node {@code n}, or -1. The buffers either wrap heap
+ * arrays or are views over the memory-mapped vocabulary file.
+ */
+final class WordPieceTrie {
+
+    private final IntBuffer edgeStart;
+    private final CharBuffer labels;
+    private final IntBuffer targets;
+    private final IntBuffer values;
+
+    private WordPieceTrie(IntBuffer edgeStart, CharBuffer labels, IntBuffer targets, IntBuffer values) {
+        this.edgeStart = edgeStart;
+        this.labels = labels;
+        this.targets = targets;
+        this.values = values;
+    }
+
+    /**
+     * Reads a trie written by {@link #writeTo(ByteBuffer)}, advancing the buffer past it.
+     * The returned trie is a view over {@code buffer}'s memory.
+     */
+    static WordPieceTrie read(ByteBuffer buffer) {
+        int nodeCount = buffer.getInt();
+        int edgeCount = buffer.getInt();
+        IntBuffer edgeStart = Vocabulary.sliceInts(buffer, nodeCount + 1);
+        IntBuffer targets = Vocabulary.sliceInts(buffer, edgeCount);
+        IntBuffer values = Vocabulary.sliceInts(buffer, nodeCount);
+        CharBuffer labels = Vocabulary.sliceChars(buffer, edgeCount);
+        return new WordPieceTrie(edgeStart, labels, targets, values);
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(values.limit());
+        buffer.putInt(targets.limit());
+        Vocabulary.putInts(buffer, edgeStart);
+        Vocabulary.putInts(buffer, targets);
+        Vocabulary.putInts(buffer, values);
+        Vocabulary.putChars(buffer, labels);
+    }
+
+    int serializedSize() {
+        return 8 + Vocabulary.intsSize(edgeStart.limit() + targets.limit() + values.limit())
+                + Vocabulary.charsSize(labels.limit());
+    }
+
+    /**
+     * Builds a trie over the entries whose key starts with {@code prefix}, with the prefix removed.
+     */
+    static WordPieceTrie build(Map<String, Integer> vocab, String prefix) {
+        String[] keys = vocab.keySet().stream()
+                .filter(key -> key.startsWith(prefix))
+                .map(key -> key.substring(prefix.length()))
+                .sorted()
+                .toArray(String[]::new);
+        int[] ids = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ids[i] = vocab.get(prefix + keys[i]);
+        }
+
+        // Breadth-first over ranges of sorted keys sharing a prefix of length depth[n]
+        int capacity = 1024;
+        int[] rangeStart = new int[capacity];
+        int[] rangeEnd = new int[capacity];
+        int[] depth = new int[capacity];
+        int[] values = new int[capacity];
+        int[] edgeStart = new int[capacity + 1];
+        char[] labels = new char[capacity];
+        int[] targets = new int[capacity];
+
+        int nodeCount = 1;
+        int edgeCount = 0;
+        rangeEnd[0] = keys.length;
+
+        for (int node = 0; node < nodeCount; node++) {
+            int lo = rangeStart[node];
+            int hi = rangeEnd[node];
+            int d = depth[node];
+
+            values[node] = -1;
+            if (lo < hi && keys[lo].length() == d) {
+                values[node] = ids[lo];
+                lo++;
+            }
+
+            edgeStart[node] = edgeCount;
+            int i = lo;
+            while (i < hi) {
+                char c = keys[i].charAt(d);
+                int j = i + 1;
+                while (j < hi && keys[j].charAt(d) == c) {
+                    j++;
+                }
+
+                if (nodeCount == rangeStart.length) {
+                    int grown = nodeCount * 2;
+                    rangeStart = Arrays.copyOf(rangeStart, grown);
+                    rangeEnd = Arrays.copyOf(rangeEnd, grown);
+                    depth = Arrays.copyOf(depth, grown);
+                    values = Arrays.copyOf(values, grown);
+                    edgeStart = Arrays.copyOf(edgeStart, grown + 1);
+                }
+                if (edgeCount == labels.length) {
+                    labels = Arrays.copyOf(labels, edgeCount * 2);
+                    targets = Arrays.copyOf(targets, edgeCount * 2);
+                }
+
+                rangeStart[nodeCount] = i;
+                rangeEnd[nodeCount] = j;
+                depth[nodeCount] = d + 1;
+                labels[edgeCount] = c;
+                targets[edgeCount] = nodeCount;
+                edgeCount++;
+                nodeCount++;
+                i = j;
+            }
+        }
+        edgeStart[nodeCount] = edgeCount;
+
+        return new WordPieceTrie(
+                IntBuffer.wrap(Arrays.copyOf(edgeStart, nodeCount + 1)),
+                CharBuffer.wrap(Arrays.copyOf(labels, edgeCount)),
+                IntBuffer.wrap(Arrays.copyOf(targets, edgeCount)),
+                IntBuffer.wrap(Arrays.copyOf(values, nodeCount)));
+    }
+
+    /**
+     * Id of the entry equal to {@code key}, or -1.
+     */
+    int get(String key) {
+        int node = 0;
+        for (int i = 0; i < key.length() && node >= 0; i++) {
+            node = child(node, key.charAt(i));
+        }
+        return node >= 0 ? values.get(node) : -1;
+    }
+
+    /**
+     * Finds the longest entry that is a prefix of {@code chars[from, to)}.
+     *
+     * @return {@code (end << 32) | id} for the longest match, or -1 if none
+     */
+    long longestMatch(char[] chars, int from, int to) {
+        long match = -1;
+        int node = 0;
+        for (int i = from; i < to; i++) {
+            node = child(node, chars[i]);
+            if (node < 0) {
+                break;
+            }
+            int value = values.get(node);
+            if (value >= 0) {
+                match = ((long) (i + 1) << 32) | value;
+            }
+        }
+        return match;
+    }
+
+    private int child(int node, char c) {
+        int lo = edgeStart.get(node);
+        int hi = edgeStart.get(node + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char label = labels.get(mid);
+            if (label < c) {
+                lo = mid + 1;
+            } else if (label > c) {
+                hi = mid - 1;
+            } else {
+                return targets.get(mid);
+            }
+        }
+        return -1;
+    }
+}
@@ -3,11 +3,15 @@
  */
 module ai.korra.heb.lemmatizer {
     requires org.elasticsearch.server;
+    requires org.elasticsearch.base;
+    requires org.elasticsearch.xcontent;
     requires org.apache.lucene.core;
     requires org.apache.lucene.analysis.common;
+    requires org.apache.logging.log4j;
 
     requires com.microsoft.onnxruntime;
     requires com.google.gson;
+    requires static jdk.incubator.vector;
 
     exports ai.korra;
 }
@@ -0,0 +1,56 @@
+package ai.korra;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consecutive-failure circuit breaker for the remote endpoint.
+ *
+ * After {@code failureThreshold} failed calls in a row the breaker opens and callers fall
+ * back without calling the endpoint. Once {@code openNanos} have passed, a single probe
+ * call is let through: it closes the breaker on success and reopens it on failure.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile long openUntil;
+    private volatile boolean open;
+
+    CircuitBreaker(int failureThreshold, long openNanos) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * Whether a call may go to the endpoint. A {@code true} result must be followed by
+     * {@link #onSuccess} or {@link #onFailure}.
+     */
+    boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        return System.nanoTime() - openUntil >= 0 && probing.compareAndSet(false, true);
+    }
+
+    void onSuccess() {
+        failures.set(0);
+        open = false;
+        probing.set(false);
+    }
+
+    void onFailure() {
+        int count = failures.incrementAndGet();
+        if (failureThreshold > 0 && (count >= failureThreshold || probing.get())) {
+            openUntil = System.nanoTime() + openNanos;
+            open = true;
+        }
+        probing.set(false);
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+}
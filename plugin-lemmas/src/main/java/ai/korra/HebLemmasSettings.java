@@ -0,0 +1,84 @@
+package ai.korra;
+
+import org.elasticsearch.plugin.settings.AnalysisSettings;
+import org.elasticsearch.plugin.settings.BooleanSetting;
+import org.elasticsearch.plugin.settings.IntSetting;
+import org.elasticsearch.plugin.settings.StringSetting;
+
+/**
+ * Settings of the {@code heb_lemmas} filter for the remote Dicta lemmatizer.
+ *
+ * Filters with the same settings share one {@link HebStemmer} and its connections.
+ */
+@AnalysisSettings
+public interface HebLemmasSettings {
+
+    /**
+     * Lemmas endpoint. Empty falls back to {@code KORRA_HEB_URL}, then to {@code http://dicta:8000/lemmas}.
+     */
+    @StringSetting(path = "url", defaultValue = "")
+    String url();
+
+    /**
+     * Negotiate HTTP/2 (falls back to HTTP/1.1 if the server does not support it).
+     */
+    @BooleanSetting(path = "http2", defaultValue = false)
+    boolean http2();
+
+    @IntSetting(path = "connect_timeout_ms", defaultValue = 2000)
+    int connectTimeoutMs();
+
+    /**
+     * Timeout of one HTTP call, per attempt.
+     */
+    @IntSetting(path = "request_timeout_ms", defaultValue = 10000)
+    int requestTimeoutMs();
+
+    /**
+     * Retries after a connection error, timeout, 429 or 5xx response.
+     */
+    @IntSetting(path = "max_retries", defaultValue = 2)
+    int maxRetries();
+
+    /**
+     * Backoff before the first retry, doubled (with jitter) for each further retry.
+     */
+    @IntSetting(path = "retry_backoff_ms", defaultValue = 100)
+    int retryBackoffMs();
+
+    /**
+     * Upper bound on concurrent calls to the endpoint.
+     */
+    @IntSetting(path = "max_concurrent_requests", defaultValue = 16)
+    int maxConcurrentRequests();
+
+    /**
+     * Consecutive failed calls that open the circuit breaker; 0 disables the breaker.
+     */
+    @IntSetting(path = "breaker.failure_threshold", defaultValue = 5)
+    int breakerFailureThreshold();
+
+    /**
+     * How long an open breaker passes tokens through before letting a probe call through.
+     */
+    @IntSetting(path = "breaker.open_ms", defaultValue = 30000)
+    int breakerOpenMs();
+
+    /**
+     * Fields sent together in one call to the endpoint; 1 disables coalescing.
+     */
+    @IntSetting(path = "batch.max_size", defaultValue = 1)
+    int batchMaxSize();
+
+    /**
+     * No more fields are added to a coalesced call once it has this many words.
+     */
+    @IntSetting(path = "batch.max_words", defaultValue = 512)
+    int batchMaxWords();
+
+    /**
+     * How long a coalesced call waits for more fields after the first one arrives.
+     */
+    @IntSetting(path = "batch.max_wait_ms", defaultValue = 5)
+    int batchMaxWaitMs();
+}
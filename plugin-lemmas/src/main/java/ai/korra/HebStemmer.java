@@ -1,55 +1,256 @@
 package ai.korra;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Client for the remote Dicta lemmas endpoint, shared by all filters with the same settings.
+ *
+ * One {@link HttpClient} keeps connections alive across fields. Calls time out, are
+ * retried with exponential backoff and go through a {@link CircuitBreaker}; when the
+ * endpoint cannot be reached the words are passed through unchanged, never replaced by
+ * an error message. With {@code batch.max_size > 1} concurrent fields are coalesced into
+ * one call by a {@link RequestCoalescer}.
+ *
+ * A single field is posted as its space-separated words and the endpoint returns a JSON
+ * list with one lemma per word. Several fields are posted as a JSON list with one
+ * space-separated string per field, so every field is lemmatized as its own sequence, and
+ * the endpoint returns one lemma list per field. A field whose lemma count does not match
+ * its word count passes through unchanged without failing the other fields of the call.
+ */
 public class HebStemmer {
-    protected String stem(String term)
-    {
-        HebDebugger debugger = new HebDebugger();
-
-        debugger.debugPrint("HebStemmer stem started with term: " + term);
-        String host = System.getenv("KORRA_HEB_URL");
-        
-        if (host == null || host.trim().isEmpty()) {
-            host = "http://dicta:8000/lemmas";
-        };
-
-        debugger.debugPrint("HebStemmer host : " +host);
-        // create a client
-        
-        var client = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)
+
+    private static final String DEFAULT_URL = "http://dicta:8000/lemmas";
+    private static final Gson GSON = new Gson();
+    private static final Type LEMMA_LIST = new TypeToken<List<String>>() {}.getType();
+    private static final Type LEMMA_LISTS = new TypeToken<List<List<String>>>() {}.getType();
+    private static final Map<Config, HebStemmer> SHARED = new ConcurrentHashMap<>();
+
+    private final HebDebugger debugger = new HebDebugger();
+    private final Config config;
+    private final HttpClient client;
+    private final Semaphore permits;
+    private final CircuitBreaker breaker;
+    private final RequestCoalescer coalescer;
+
+    /**
+     * Client settings; equal configs share a client.
+     */
+    record Config(URI uri, boolean http2, int connectTimeoutMs, int requestTimeoutMs, int maxRetries,
+                  int retryBackoffMs, int maxConcurrentRequests, int breakerFailureThreshold, int breakerOpenMs,
+                  int batchMaxSize, int batchMaxWords, int batchMaxWaitMs) {
+
+        static Config of(HebLemmasSettings settings) {
+            return new Config(resolveUri(settings.url()), settings.http2(), settings.connectTimeoutMs(),
+                    settings.requestTimeoutMs(), settings.maxRetries(), settings.retryBackoffMs(),
+                    Math.max(1, settings.maxConcurrentRequests()), settings.breakerFailureThreshold(),
+                    settings.breakerOpenMs(), Math.max(1, settings.batchMaxSize()),
+                    Math.max(1, settings.batchMaxWords()), settings.batchMaxWaitMs());
+        }
+
+        static Config defaults() {
+            return new Config(resolveUri(""), false, 2000, 10000, 2, 100, 16, 5, 30000, 1, 512, 5);
+        }
+
+        /**
+         * Upper bound on how long one call can take, including retries and backoff.
+         */
+        long maxCallMillis() {
+            return (long) (maxRetries + 1) * requestTimeoutMs + ((long) retryBackoffMs << Math.min(maxRetries, 20)) * 2;
+        }
+
+        private static URI resolveUri(String url) {
+            if (url == null || url.isBlank()) {
+                url = System.getenv("KORRA_HEB_URL");
+            }
+            if (url == null || url.isBlank()) {
+                url = DEFAULT_URL;
+            }
+            return URI.create(url.trim());
+        }
+    }
+
+    static HebStemmer forSettings(HebLemmasSettings settings) {
+        return SHARED.computeIfAbsent(Config.of(settings), HebStemmer::new);
+    }
+
+    static HebStemmer defaults() {
+        return SHARED.computeIfAbsent(Config.defaults(), HebStemmer::new);
+    }
+
+    HebStemmer(Config config) {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+                .version(config.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(config.connectTimeoutMs()))
                 .build();
+        this.permits = new Semaphore(config.maxConcurrentRequests());
+        this.breaker = new CircuitBreaker(config.breakerFailureThreshold(),
+                TimeUnit.MILLISECONDS.toNanos(config.breakerOpenMs()));
+        this.coalescer = config.batchMaxSize() > 1
+                ? new RequestCoalescer(this::call, config.batchMaxSize(), config.batchMaxWords(),
+                        TimeUnit.MILLISECONDS.toNanos(config.batchMaxWaitMs()), config.maxConcurrentRequests(),
+                        config.maxCallMillis())
+                : null;
+        debugger.debugPrint("HebStemmer created for " + config.uri());
+    }
+
+    /**
+     * Lemmas of the words of one field, one per word, or the words themselves if the
+     * endpoint is unavailable.
+     */
+    protected List<String> stem(List<String> words) {
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return coalescer != null ? coalescer.submit(words) : call(List.of(words)).get(0);
+    }
+
+    boolean isBreakerOpen() {
+        return breaker.isOpen();
+    }
+
+    /**
+     * One call (with retries) for the words of each field. Returns the lemmas of every
+     * field, or its words if the call failed or the field's lemma count is off.
+     */
+    List<List<String>> call(List<List<String>> fields) {
+        if (!breaker.allowRequest()) {
+            debugger.debugPrint("HebStemmer circuit breaker open, passing " + fields.size() + " fields through");
+            return passthrough(fields);
+        }
+        boolean success = false;
+        try {
+            List<List<String>> lemmas = callWithRetries(fields);
+            success = true;
+            return lemmas;
+        } catch (IOException e) {
+            debugger.debugPrint("HebStemmer call to " + config.uri() + " failed, passing words through: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Also reached on runtime exceptions, so a probe call never leaves the breaker stuck open
+            if (success) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+        }
+        return passthrough(fields);
+    }
 
-        // create a request
-        var request = HttpRequest.newBuilder()
-                .uri(URI.create(host))
+    private static List<List<String>> passthrough(List<List<String>> fields) {
+        List<List<String>> result = new ArrayList<>(fields.size());
+        for (List<String> words : fields) {
+            result.add(new ArrayList<>(words));
+        }
+        return result;
+    }
+
+    private List<List<String>> callWithRetries(List<List<String>> fields) throws IOException, InterruptedException {
+        boolean batch = fields.size() > 1;
+        String body;
+        if (batch) {
+            List<String> sequences = new ArrayList<>(fields.size());
+            for (List<String> words : fields) {
+                sequences.add(String.join(" ", words));
+            }
+            body = GSON.toJson(sequences);
+        } else {
+            body = String.join(" ", fields.get(0));
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(config.uri())
+                .timeout(Duration.ofMillis(config.requestTimeoutMs()))
                 .header("accept", "*/*")
-                .header("Content-Type", "text/plain;charset=UTF-8")
-                .POST(HttpRequest.BodyPublishers.ofString(term))
+                .header("Content-Type", batch ? "application/json;charset=UTF-8" : "text/plain;charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                 .build();
 
-        // use the client to send the request
-        try {
-            //debug mode
-            debugger.debugPrint("HebStemmer api call to dicta sent");
+        IOException failure = null;
+        for (int attempt = 0; attempt <= config.maxRetries(); attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(backoffMillis(attempt));
+            }
+            HttpResponse<String> response;
             long startTime = System.nanoTime();
-            // send api call to dicta
-            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            // debug mode
-            long endTime = System.nanoTime();
-            long duration = endTime - startTime;
-            long durationInMs = duration / 1000_000_000;
-            debugger.debugPrint("HebStemmer api call to dicta run time in seconds: " + durationInMs);
-            debugger.debugPrint("HebStemmer api call response body: " + response.body());
-            
-            return response.body();
-        } catch (Exception e) {
-            debugger.debugPrint("Heb.stemmer api call Exception while fetching response: " + e);
-            return "Exception while fetching response: " + e;
+            permits.acquire();
+            try {
+                response = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // Connection errors and timeouts
+                failure = e;
+                continue;
+            } finally {
+                permits.release();
+            }
+            debugger.debugPrint("HebStemmer call took " + (System.nanoTime() - startTime) / 1_000_000 + "ms, status "
+                    + response.statusCode());
+
+            int status = response.statusCode();
+            if (status == 200) {
+                return parse(response.body(), fields);
+            }
+            failure = new IOException("Lemmas endpoint returned HTTP " + status);
+            if (status != 429 && status < 500) {
+                break;
+            }
         }
+        throw failure;
+    }
+
+    private long backoffMillis(int attempt) {
+        long backoff = (long) config.retryBackoffMs() << Math.min(attempt - 1, 20);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private List<List<String>> parse(String body, List<List<String>> fields) throws IOException {
+        List<List<String>> lemmas;
+        try {
+            lemmas = fields.size() > 1 ? GSON.fromJson(body, LEMMA_LISTS) : listOf(GSON.fromJson(body, LEMMA_LIST));
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed lemmas response", e);
+        }
+        if (lemmas == null || lemmas.size() != fields.size()) {
+            throw new IOException("Expected lemmas for " + fields.size() + " fields, got "
+                    + (lemmas == null ? 0 : lemmas.size()));
+        }
+
+        List<List<String>> result = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            List<String> words = fields.get(i);
+            List<String> fieldLemmas = lemmas.get(i);
+            if (fieldLemmas == null || fieldLemmas.size() != words.size()) {
+                debugger.debugPrint("HebStemmer expected " + words.size() + " lemmas, got "
+                        + (fieldLemmas == null ? 0 : fieldLemmas.size()) + ", passing the field through");
+                result.add(new ArrayList<>(words));
+            } else {
+                result.add(fieldLemmas);
+            }
+        }
+        return result;
+    }
+
+    private static List<List<String>> listOf(List<String> lemmas) {
+        List<List<String>> result = new ArrayList<>(1);
+        result.add(lemmas);
+        return result;
     }
 }
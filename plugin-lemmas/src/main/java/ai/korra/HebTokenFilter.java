@@ -3,7 +3,6 @@ package ai.korra;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.lang.reflect.Type;
 
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
@@ -12,12 +11,9 @@ import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
 public class HebTokenFilter extends TokenFilter {
 
-    private HebStemmer stemmer = new HebStemmer();
+    private final HebStemmer stemmer;
     private HebDebugger debugger = new HebDebugger();
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
     private final OffsetAttribute offsetAttr = addAttribute(OffsetAttribute.class);
@@ -26,10 +22,15 @@ public class HebTokenFilter extends TokenFilter {
 
     private boolean emitExtraToken;
     private List<String> lemmaList = new ArrayList<>();
-    private StringBuilder concatBuilder = new StringBuilder();
+    private final List<String> terms = new ArrayList<>();
 
     public HebTokenFilter(TokenStream input) {
+        this(input, HebStemmer.defaults());
+    }
+
+    HebTokenFilter(TokenStream input, HebStemmer stemmer) {
         super(input);
+        this.stemmer = stemmer;
     }
 
     @Override
@@ -48,32 +49,15 @@ public class HebTokenFilter extends TokenFilter {
         return true;
       }
 
-      if (input.incrementToken()) {
-        concatBuilder.setLength(0);
-        String term = termAttr.toString();
-        concatBuilder.append(term);
-        concatBuilder.append(" ");
-      } else {
-        return false;
-      }
-
+      terms.clear();
       while (input.incrementToken()) {
-        String term = termAttr.toString();
-        concatBuilder.append(term);
-        concatBuilder.append(" ");
+        terms.add(termAttr.toString());
       }
-
-      String concatString = concatBuilder.toString();
-      if (concatString.endsWith(" ")) {
-        concatString = concatString.substring(0, concatString.length() - 1);
+      if (terms.isEmpty()) {
+        return false;
       }
-      //prrint concat String senteces
-      String reversedText = new StringBuilder(concatString).reverse().toString();
-      debugger.debugPrint("HebTokenFilter.incrementToken concated String : "+reversedText);
-      String jsonString = stemmer.stem(concatString);
-      Gson gson = new Gson();
-      Type listType = new TypeToken<List<String>>() {}.getType();
-      lemmaList = gson.fromJson(jsonString, listType);
+
+      lemmaList = stemmer.stem(terms);
       //lemma list print
       debugger.debugPrint("HebTokenFilter.incrementToken lemmaList : "+lemmaList);
       produceTerm();
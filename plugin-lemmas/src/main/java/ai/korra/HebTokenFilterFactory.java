@@ -2,14 +2,22 @@ package ai.korra;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.elasticsearch.plugin.analysis.TokenFilterFactory;
+import org.elasticsearch.plugin.Inject;
 import org.elasticsearch.plugin.NamedComponent;
 
 @NamedComponent(value = "heb_lemmas")
 public class HebTokenFilterFactory implements TokenFilterFactory {
 
+    private final HebStemmer stemmer;
+
+    @Inject
+    public HebTokenFilterFactory(HebLemmasSettings settings) {
+        this.stemmer = HebStemmer.forSettings(settings);
+    }
+
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new HebTokenFilter(tokenStream);
+        return new HebTokenFilter(tokenStream, stemmer);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package ai.korra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Coalesces the fields analyzed concurrently on different threads into one call to the
+ * lemmas endpoint.
+ *
+ * A dispatcher thread takes the first queued field, waits up to {@code maxWaitNanos} for
+ * more, and sends them in one call on a sender thread. Each field stays its own sequence
+ * in the call, so words of unrelated documents are never lemmatized as context for each
+ * other, and the caller returns one lemma list per field.
+ */
+final class RequestCoalescer {
+
+    private static final class Pending {
+        final List<String> words;
+        final CompletableFuture<List<String>> result = new CompletableFuture<>();
+
+        Pending(List<String> words) {
+            this.words = words;
+        }
+    }
+
+    private final Function<List<List<String>>, List<List<String>>> caller;
+    private final int maxFields;
+    private final int maxWords;
+    private final long maxWaitNanos;
+    private final long timeoutMillis;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService senders;
+
+    RequestCoalescer(Function<List<List<String>>, List<List<String>>> caller, int maxFields, int maxWords,
+                     long maxWaitNanos, int senderCount, long callTimeoutMillis) {
+        this.caller = caller;
+        this.maxFields = maxFields;
+        this.maxWords = maxWords;
+        this.maxWaitNanos = maxWaitNanos;
+        this.timeoutMillis = callTimeoutMillis + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+
+        AtomicInteger senderId = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderCount, r -> {
+            Thread thread = new Thread(r, "heb-lemmas-sender-" + senderId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread dispatcher = new Thread(this::dispatch, "heb-lemmas-coalescer");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Queues the words of one field and blocks until its lemmas are back, passing the
+     * words through if the call does not complete in time.
+     */
+    List<String> submit(List<String> words) {
+        Pending pending = new Pending(words);
+        queue.add(pending);
+        try {
+            return pending.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // fall through to passthrough
+        }
+        return new ArrayList<>(words);
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                int words = batch.get(0).words.size();
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxFields && words < maxWords) {
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    words += next.words.size();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<Pending> toSend = List.copyOf(batch);
+            batch.clear();
+            senders.execute(() -> send(toSend));
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        try {
+            List<List<String>> fields = new ArrayList<>(batch.size());
+            for (Pending pending : batch) {
+                fields.add(pending.words);
+            }
+            List<List<String>> lemmas = caller.apply(fields);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(lemmas.get(i));
+            }
+        } catch (RuntimeException e) {
+            for (Pending pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package ai.korra;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link HebStemmer} against a local stub of the lemmas endpoint. The stub lemmatizes a
+ * word by appending {@code _lemma}, unless a test queues another response first.
+ */
+public class HebStemmerTests {
+
+    private static final Gson GSON = new Gson();
+    private static final Type STRING_LIST = new TypeToken<List<String>>() {}.getType();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> bodies = new ConcurrentLinkedQueue<>();
+    private volatile int failStatus;
+    private volatile long delayMillis;
+    private volatile String dropLemmaOf;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/lemmas", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        bodies.add(body);
+        try {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Integer queued = statuses.poll();
+        int status = queued != null ? queued : failStatus != 0 ? failStatus : 200;
+        String response;
+        if (status != 200) {
+            response = "error";
+        } else if (exchange.getRequestHeaders().getFirst("Content-Type").startsWith("application/json")) {
+            List<List<String>> lemmas = new ArrayList<>();
+            for (String field : GSON.<List<String>>fromJson(body, STRING_LIST)) {
+                lemmas.add(lemmatize(field));
+            }
+            response = GSON.toJson(lemmas);
+        } else {
+            response = GSON.toJson(lemmatize(body));
+        }
+
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private List<String> lemmatize(String text) {
+        List<String> lemmas = new ArrayList<>();
+        for (String word : text.split(" ")) {
+            if (!word.equals(dropLemmaOf)) {
+                lemmas.add(word + "_lemma");
+            }
+        }
+        return lemmas;
+    }
+
+    private HebStemmer stemmer(int requestTimeoutMs, int maxRetries, int breakerThreshold, int breakerOpenMs,
+                               int batchMaxSize, int batchMaxWaitMs) {
+        URI uri = URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + "/lemmas");
+        return new HebStemmer(new HebStemmer.Config(uri, false, 1000, requestTimeoutMs, maxRetries, 1, 4,
+                breakerThreshold, breakerOpenMs, batchMaxSize, 512, batchMaxWaitMs));
+    }
+
+    private HebStemmer stemmer() {
+        return stemmer(2000, 2, 5, 30000, 1, 5);
+    }
+
+    @Test
+    public void testLemmatizesWords() {
+        assertEquals(List.of("הילדים_lemma", "הלכו_lemma"), stemmer().stem(List.of("הילדים", "הלכו")));
+        assertEquals(List.of("הילדים הלכו"), List.copyOf(bodies));
+    }
+
+    @Test
+    public void testRetriesOn429And5xx() {
+        statuses.add(429);
+        statuses.add(503);
+        assertEquals(List.of("גן_lemma"), stemmer().stem(List.of("גן")));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testDoesNotRetryOtherClientErrors() {
+        statuses.add(400);
+        assertEquals(List.of("גן"), stemmer().stem(List.of("גן")));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testPassesThroughAfterRetriesAreExhausted() {
+        failStatus = 500;
+        assertEquals(List.of("גן"), stemmer(2000, 2, 5, 30000, 1, 5).stem(List.of("גן")));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testPassesThroughOnTimeout() {
+        delayMillis = 2000;
+        HebStemmer stemmer = stemmer(200, 0, 5, 30000, 1, 5);
+        long start = System.nanoTime();
+        assertEquals(List.of("גן", "ילד"), stemmer.stem(List.of("גן", "ילד")));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(1500L));
+    }
+
+    @Test
+    public void testBreakerOpensAndRecoversThroughProbe() throws InterruptedException {
+        failStatus = 500;
+        HebStemmer stemmer = stemmer(2000, 0, 2, 300, 1, 5);
+        stemmer.stem(List.of("גן"));
+        assertFalse(stemmer.isBreakerOpen());
+        stemmer.stem(List.of("גן"));
+        assertTrue(stemmer.isBreakerOpen());
+
+        // Open: no calls reach the endpoint
+        assertEquals(List.of("גן"), stemmer.stem(List.of("גן")));
+        assertEquals(2, requests.get());
+
+        // Half-open: a failed probe reopens the breaker
+        Thread.sleep(400);
+        assertEquals(List.of("גן"), stemmer.stem(List.of("גן")));
+        assertEquals(3, requests.get());
+        assertTrue(stemmer.isBreakerOpen());
+
+        // Half-open: a successful probe closes it
+        failStatus = 0;
+        Thread.sleep(400);
+        assertEquals(List.of("גן_lemma"), stemmer.stem(List.of("גן")));
+        assertFalse(stemmer.isBreakerOpen());
+        assertEquals(List.of("ילד_lemma"), stemmer.stem(List.of("ילד")));
+        assertEquals(5, requests.get());
+    }
+
+    @Test
+    public void testCoalescedResponseIsSplitPerField() throws Exception {
+        HebStemmer stemmer = stemmer(2000, 0, 5, 30000, 8, 500);
+        List<List<String>> fields = List.of(List.of("הילדים", "הלכו"), List.of("גן"), List.of("בית", "ספר", "חדש"));
+        List<List<String>> results = stemConcurrently(stemmer, fields);
+
+        for (int i = 0; i < fields.size(); i++) {
+            List<String> expected = new ArrayList<>();
+            for (String word : fields.get(i)) {
+                expected.add(word + "_lemma");
+            }
+            assertEquals(expected, results.get(i));
+        }
+        assertEquals(1, requests.get());
+        // Each field is its own sequence in the call
+        List<String> sequences = GSON.fromJson(bodies.peek(), STRING_LIST);
+        assertThat(sequences.size(), equalTo(3));
+        assertTrue(sequences.contains("בית ספר חדש"));
+    }
+
+    @Test
+    public void testLemmaCountMismatchFallsBackPerField() throws Exception {
+        dropLemmaOf = "הלכו";
+        HebStemmer stemmer = stemmer(2000, 0, 1, 30000, 8, 500);
+        List<List<String>> results = stemConcurrently(stemmer, List.of(List.of("הילדים", "הלכו"), List.of("גן")));
+
+        assertEquals(List.of("הילדים", "הלכו"), results.get(0));
+        assertEquals(List.of("גן_lemma"), results.get(1));
+        assertEquals(1, requests.get());
+        assertFalse(stemmer.isBreakerOpen());
+    }
+
+    /**
+     * Stems the fields from one thread each, started together so they are coalesced.
+     */
+    private static List<List<String>> stemConcurrently(HebStemmer stemmer, List<List<String>> fields)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(fields.size());
+        try {
+            CountDownLatch ready = new CountDownLatch(fields.size());
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (List<String> words : fields) {
+                futures.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    return stemmer.stem(words);
+                }));
+            }
+            List<List<String>> results = new ArrayList<>();
+            for (Future<List<String>> future : futures) {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}